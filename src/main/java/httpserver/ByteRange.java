@@ -0,0 +1,172 @@
+package httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ByteRange is one part of a body a client asked for with a Range header
+ * (RFC 7233), like {@code bytes=0-499}. <p>
+ *
+ * Ranges are parsed against the length of the whole body, so open ended and
+ * suffix ranges ({@code 500-} and {@code -500}) come out as plain start and
+ * end positions.
+ *
+ * @see HttpResponse#setRanges
+ */
+public class ByteRange {
+    /** The most ranges a single request can ask for */
+    public static final int maxRanges = 16;
+
+    private final long start;
+    private final long end;
+
+
+    /**
+     * Create a ByteRange.
+     *
+     * @param start   The first byte in the range.
+     * @param end     The last byte in the range (not the one after it).
+     */
+    public ByteRange(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Bad range " + start + "-" + end);
+        }
+
+        this.start = start;
+        this.end = end;
+    }
+
+
+    /**
+     * Parse a Range header. <p>
+     *
+     * A header that's malformed, uses some unit other than bytes, or asks for
+     * more than {@link #maxRanges} ranges is ignored, like the RFC allows,
+     * and the whole body should be sent. Ranges that start past the end of
+     * the body are left out, and ones that run past the end are cut short.
+     *
+     * @param header  The Range header's value.
+     * @param length  The length of the whole body.
+     * @return The ranges, in the order they were asked for. Empty if none of
+     *         them can be satisfied (a 416), or null if the header should be
+     *         ignored.
+     */
+    public static List<ByteRange> parse(String header, long length) {
+        header = header.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > maxRanges) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        int count = 0;
+        for (String spec : specs) {
+            spec = spec.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            count++;
+
+            int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+
+            long first = parseNumber(spec, 0, dash);
+            long last = parseNumber(spec, dash + 1, spec.length());
+
+            if (dash == 0) {
+                // A suffix, the last however many bytes.
+                if (last == -1) {
+                    return null;
+                }
+                if (last > 0 && length > 0) {
+                    ranges.add(new ByteRange(Math.max(0, length - last), length - 1));
+                }
+                continue;
+            }
+
+            if (first == -1 || (dash + 1 < spec.length() && last == -1)) {
+                return null;
+            }
+            if (last != -1 && last < first) {
+                return null;
+            }
+
+            if (first < length) {
+                long end = last == -1 ? length - 1 : Math.min(last, length - 1);
+                ranges.add(new ByteRange(first, end));
+            }
+        }
+
+        return count == 0 ? null : ranges;
+    }
+
+    /**
+     * Parse the digits between start and end.
+     * @return The number, or -1 if there aren't any digits, there's
+     *         something other than digits, or it's too big.
+     */
+    private static long parseNumber(String s, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+
+        long n = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+
+    /**
+     * Get the Content-Range header's value for a response with this range.
+     *
+     * @param length  The length of the whole body.
+     * @return The value, like {@code bytes 0-499/1234}.
+     */
+    public String toContentRange(long length) {
+        return "bytes " + start + "-" + end + "/" + length;
+    }
+
+    /**
+     * Get the Content-Range header's value for a 416 response.
+     *
+     * @param length  The length of the whole body.
+     * @return The value, like {@code bytes *}{@code /1234}.
+     */
+    public static String unsatisfiable(long length) {
+        return "bytes */" + length;
+    }
+
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get how many bytes are in the range.
+     * @return The number of bytes.
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
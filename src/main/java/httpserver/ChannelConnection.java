@@ -0,0 +1,594 @@
+package httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A ChannelConnection is an {@link HttpConnection} being watched by an
+ * {@link EventLoop}. <p>
+ *
+ * Bytes are read as they show up, and the request's head is parsed
+ * incrementally by a {@link RequestParser}, so a slow client never ties up a
+ * thread. Requests are handled right where they sit in the read buffer, and
+ * their parsers are reused from one batch of requests to the next. Once the
+ * headers, and any body (announced by {@code Content-Length}, or sent in
+ * chunks), have arrived, the connection is handed to a worker thread, which runs the request as a
+ * regular {@link HttpRequest}. If the connection is kept alive, it goes back
+ * to the EventLoop to wait for the next request. <p>
+ *
+ * Pipelined requests that have already arrived are handed to the worker
+ * along with the first, up to the server's pipeline depth, and handled one
+ * after another without going back to the EventLoop in between. <p>
+ *
+ * Responses are written from the worker thread straight to the channel. If
+ * the client isn't keeping up, the worker waits for the EventLoop to report
+ * the channel writable again, rather than buffering the whole response.
+ */
+class ChannelConnection extends HttpConnection {
+    /** The size of a connection's read buffer when it's created */
+    public static final int initialBufferSize = 8 * 1024;
+
+    /** The largest request (headers and body) that will be read in */
+    public static final int maxRequestSize = 1024 * 1024;
+
+    /** How long a worker waits for a stalled client to accept data, in ms */
+    public static final long writeTimeout = 30 * 1000;
+
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(initialBufferSize);
+    private final OutputStream output = new ChannelOutputStream();
+
+    // Reads the dispatched requests out of the read buffer for the worker.
+    private final RequestInput input = new RequestInput();
+    // The parsed heads of complete requests waiting for the worker, in the
+    // order they arrived.
+    private final Queue<RequestParser> pending = new ArrayDeque<>();
+    // A malformed request that came in after the pending ones. It's answered
+    // once they have been, and then the connection is closed.
+    private HttpException failure;
+    // Whether a worker is handling a request.
+    private boolean busy = false;
+    // When the connection was last read from, or finished a request.
+    private long lastActive = System.currentTimeMillis();
+
+    // One parser for each request in the read buffer, and the one being read
+    // in. They're only reused once the worker is done with them.
+    private RequestParser[] parsers = {new RequestParser()};
+    // Parses the head of the request being read in.
+    private RequestParser parser = parsers[0];
+    // Where the request being read in starts in the read buffer. Everything
+    // before it has been handed to the worker.
+    private int requestStart = 0;
+    // Where the request ends in the read buffer, or -1 until that's known.
+    private int requestEnd = -1;
+    // Follows a chunked body to its end, and how far it's gotten.
+    private ChunkedParser chunks;
+    private int chunksScanned;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition writableCondition = writeLock.newCondition();
+    private boolean writable = false;
+    private volatile boolean open = true;
+
+
+    public ChannelConnection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+        super(loop.getServer());
+        this.loop = loop;
+        this.channel = channel;
+        this.key = key;
+    }
+
+
+    /**
+     * Read whatever the client has sent, and dispatch the request if it's
+     * complete. Only called from the EventLoop.
+     *
+     * @throws IOException  When the channel can't be read from.
+     */
+    public void onReadable() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= maxRequestSize) {
+                // Only a chunked body can get this far, a head is cut off sooner.
+                if (parser.isComplete()) {
+                    respondAndClose(413, "Request is larger than " + maxRequestSize + " bytes");
+                } else {
+                    respondAndClose(431, "Request head is too large");
+                }
+                return;
+            }
+
+            ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.min(readBuffer.capacity() * 2, maxRequestSize));
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        }
+
+        if (channel.read(readBuffer) == -1) {
+            close();
+            return;
+        }
+
+        lastActive = System.currentTimeMillis();
+        processBuffer();
+    }
+
+
+    /**
+     * Dispatch every complete request sitting in the read buffer, up to the
+     * server's pipeline depth. Anything past that stays in the buffer until
+     * the worker is done. <p>
+     *
+     * A malformed request gets a 400 (or a 413 or 431, if it's too large),
+     * and the connection is closed. Nothing after it is read, but the
+     * requests that came before it are still answered first, in order.
+     */
+    private void processBuffer() {
+        try {
+            while (pending.size() < getServer().getPipelineDepth() && nextRequestArrived()) {
+                takeRequest();
+            }
+        } catch (HttpException e) {
+            if (pending.isEmpty()) {
+                respondAndClose(e);
+                return;
+            }
+            failure = e;
+        }
+
+        if (!pending.isEmpty()) {
+            dispatch();
+        }
+    }
+
+
+    /**
+     * Figure out if all of the next request is in the read buffer. <p>
+     *
+     * The request's head is parsed as its bytes arrive, picking up where the
+     * last call left off, so no byte is looked at twice no matter how the
+     * request was split up on the wire. A chunked body is followed the same
+     * way, chunk by chunk.
+     *
+     * @return true if the whole request has arrived.
+     * @throws HttpException  When the request's head is malformed, or its
+     *                        body is too large.
+     */
+    private boolean nextRequestArrived() throws HttpException {
+        byte[] bytes = readBuffer.array();
+
+        if (requestEnd == -1 && chunks == null) {
+            if (!parser.parse(bytes, readBuffer.position())) {
+                return false;
+            }
+
+            int transferEncoding = parser.findHeader(HttpHeader.TRANSFER_ENCODING);
+            if (transferEncoding != -1) {
+                if (!ChunkedParser.isChunked(parser.getHeaderValue(bytes, transferEncoding))) {
+                    throw new HttpException("Unsupported Transfer-Encoding");
+                }
+
+                chunks = new ChunkedParser();
+                chunksScanned = parser.getHeadEnd();
+            } else {
+                int bodyLength = 0;
+                int header = parser.findHeader(HttpHeader.CONTENT_LENGTH);
+                if (header != -1) {
+                    bodyLength = parser.getHeaderInt(bytes, header);
+                }
+
+                if (parser.getHeadEnd() - requestStart + bodyLength > maxRequestSize) {
+                    throw new HttpException(413, "Request is larger than " + maxRequestSize + " bytes");
+                }
+                requestEnd = parser.getHeadEnd() + bodyLength;
+            }
+        }
+
+        // A chunked body's end can only be found by following its chunks.
+        if (chunks != null) {
+            chunksScanned = chunks.scan(bytes, chunksScanned, readBuffer.position());
+            if (!chunks.isComplete()) {
+                return false;
+            }
+
+            requestEnd = chunksScanned;
+            chunks = null;
+        }
+
+        return readBuffer.position() >= requestEnd;
+    }
+
+
+    /**
+     * Add the next complete request to the pending ones. It stays where it
+     * is in the read buffer, and takes its parser with it, so its head
+     * doesn't need to be parsed again. The next request is parsed with
+     * another parser, starting right after it.
+     */
+    private void takeRequest() {
+        pending.add(parser);
+
+        int taken = pending.size();
+        if (taken == parsers.length) {
+            parsers = Arrays.copyOf(parsers, taken + 1);
+        }
+        if (parsers[taken] == null) {
+            parsers[taken] = new RequestParser();
+        }
+
+        requestStart = requestEnd;
+        requestEnd = -1;
+        parser = parsers[taken];
+        parser.reset(requestStart);
+    }
+
+
+    /**
+     * Hand the pending requests off to a worker. The connection stops being
+     * read from until their responses have been sent, so the read buffer
+     * stays put while the worker reads them.
+     */
+    private void dispatch() {
+        input.setRequests(readBuffer.array(), requestStart, pending);
+        key.interestOps(0);
+        busy = true;
+
+        loop.getWorkers().execute(this);
+    }
+
+
+    /**
+     * Drop the requests the worker is done with from the front of the read
+     * buffer, so there's room for more. The parsers are all free again, and
+     * whatever's arrived of the next request is parsed over from the start.
+     */
+    private void compact() {
+        readBuffer.flip();
+        readBuffer.position(requestStart);
+        readBuffer.compact();
+
+        requestStart = 0;
+        requestEnd = -1;
+        chunks = null;
+        parser = parsers[0];
+        parser.reset(0);
+    }
+
+
+    /**
+     * Handle the dispatched requests, in order. Runs on a worker thread.
+     */
+    @Override
+    public void run() {
+        // Unless it's handed back to the EventLoop, the connection is busy,
+        // and nothing else would ever close it.
+        boolean resumed = false;
+        try {
+            while (!pending.isEmpty()) {
+                // Reading the request's head takes it off of pending.
+                HttpRequest httpRequest = new HttpRequest(getServer().getRouter(),
+                        getInputStream(), output);
+
+                if (!exchange(httpRequest)) {
+                    return;
+                }
+            }
+
+            if (failure != null) {
+                respondAndClose(failure);
+                return;
+            }
+
+            loop.execute(() -> resume());
+            resumed = true;
+        } finally {
+            if (!resumed) {
+                close();
+            }
+        }
+    }
+
+
+    /**
+     * Go back to waiting on the next request, once a response has been sent
+     * on a persistent connection. Only called from the EventLoop. <p>
+     *
+     * If the client already sent the next request, it's dispatched right
+     * away.
+     */
+    private void resume() {
+        busy = false;
+        lastActive = System.currentTimeMillis();
+
+        if (!key.isValid()) {
+            return;
+        }
+
+        compact();
+        key.interestOps(SelectionKey.OP_READ);
+        processBuffer();
+    }
+
+
+    /**
+     * Figure out if the connection has been waiting on its client for longer
+     * than the server's idle timeout. Only called from the EventLoop.
+     *
+     * @param now   The current time, in ms.
+     * @return true if the connection should be closed.
+     */
+    public boolean isIdle(long now) {
+        int timeout = getServer().getIdleTimeout();
+        return !busy && timeout > 0 && now - lastActive > timeout;
+    }
+
+
+    /**
+     * The client can take more data, wake up anyone waiting to write. Only
+     * called from the EventLoop.
+     */
+    public void onWritable() {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+        writeLock.lock();
+        try {
+            writable = true;
+            writableCondition.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+    /**
+     * Write all of a buffer to the channel, waiting on the EventLoop whenever
+     * the client's socket buffer is full.
+     *
+     * @param buffer  The bytes to write.
+     * @throws IOException  When the channel is closed, or the client stops
+     *                      reading for longer than the write timeout.
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (!open) {
+                throw new IOException("Connection is closed");
+            }
+
+            if (channel.write(buffer) == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    /**
+     * Write all of several buffers to the channel, in as few writes as the
+     * channel will take them in.
+     *
+     * @param buffers   The bytes to write, in order.
+     * @throws IOException  When the channel is closed, or the client stops
+     *                      reading for longer than the write timeout.
+     */
+    public void write(ByteBuffer[] buffers) throws IOException {
+        int first = 0;
+
+        while (true) {
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+
+            if (first == buffers.length) {
+                return;
+            }
+
+            if (!open) {
+                throw new IOException("Connection is closed");
+            }
+
+            if (channel.write(buffers, first, buffers.length - first) == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    /**
+     * Send part of a file to the channel, straight from the file, waiting on
+     * the EventLoop whenever the client's socket buffer is full.
+     *
+     * @param file      The file.
+     * @param position  Where in the file to start.
+     * @param count     How many bytes to send.
+     * @throws IOException  When the channel is closed, the file ends early,
+     *                      or the client stops reading for longer than the
+     *                      write timeout.
+     */
+    public void transferFrom(FileChannel file, long position, long count) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            if (!open) {
+                throw new IOException("Connection is closed");
+            }
+
+            long sent = file.transferTo(position, end - position, channel);
+            if (sent == 0) {
+                if (position >= file.size()) {
+                    throw new IOException("File is shorter than expected");
+                }
+                awaitWritable();
+            }
+            position += sent;
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        if (loop.inLoop()) {
+            // Waiting here would stop the loop from ever noticing.
+            throw new IOException("Can't wait for a slow client on the EventLoop");
+        }
+
+        writeLock.lock();
+        try {
+            writable = false;
+            loop.execute(() -> {
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            });
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(writeTimeout);
+            while (!writable && open) {
+                if (remaining <= 0) {
+                    close();
+                    throw new IOException("Timed out waiting for the client to read");
+                }
+
+                remaining = writableCondition.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+    @Override
+    protected boolean hasPipelinedRequest() {
+        return !pending.isEmpty();
+    }
+
+    @Override
+    protected InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    protected OutputStream getOutputStream() {
+        return output;
+    }
+
+
+    /**
+     * Close the connection. Safe to call from any thread, and more than once.
+     */
+    @Override
+    public void close() {
+        open = false;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        writeLock.lock();
+        try {
+            writableCondition.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+
+    /**
+     * An OutputStream that writes through to the connection's channel. <p>
+     *
+     * Small writes are collected in a buffer first, so a batch of pipelined
+     * responses can go out together. A response too big for the buffer is
+     * sent along with whatever's in it in one gathering write. Closing the
+     * stream closes the connection.
+     */
+    private class ChannelOutputStream extends OutputStream implements ResponseOutput {
+        private final ByteBuffer buffer = ByteBuffer.allocate(initialBufferSize);
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.remaining()) {
+                flush();
+            }
+
+            if (len > buffer.capacity()) {
+                ChannelConnection.this.write(ByteBuffer.wrap(b, off, len));
+                return;
+            }
+
+            buffer.put(b, off, len);
+        }
+
+        @Override
+        public void writeResponse(byte[] head, int headLength, ByteBuffer body)
+                throws IOException {
+            body = body.duplicate();
+            if (headLength + body.remaining() <= buffer.remaining()) {
+                buffer.put(head, 0, headLength);
+                buffer.put(body);
+                return;
+            }
+
+            buffer.flip();
+            try {
+                ChannelConnection.this.write(new ByteBuffer[] {buffer,
+                    ByteBuffer.wrap(head, 0, headLength), body});
+            } finally {
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public void writeFile(byte[] head, int headLength, FileChannel file, long position, long count)
+                throws IOException {
+            buffer.flip();
+            try {
+                ChannelConnection.this.write(new ByteBuffer[] {buffer,
+                    ByteBuffer.wrap(head, 0, headLength)});
+            } finally {
+                buffer.clear();
+            }
+
+            ChannelConnection.this.transferFrom(file, position, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            try {
+                ChannelConnection.this.write(buffer);
+            } finally {
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                ChannelConnection.this.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package httpserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A ChunkedInputStream decodes a body sent with {@code Transfer-Encoding:
+ * chunked}, as it's read. <p>
+ *
+ * The framing is read a byte at a time (the stream underneath is buffered),
+ * so nothing past the end of the body is ever read. The chunks' data is
+ * read straight through in as big of pieces as the caller asks for. The
+ * stream ends after the last chunk and its trailers.
+ *
+ * @see ChunkedParser
+ */
+class ChunkedInputStream extends InputStream {
+    private final InputStream in;
+    private final ChunkedParser parser = new ChunkedParser();
+    private final byte[] framing = new byte[1];
+
+
+    /**
+     * Create a ChunkedInputStream.
+     * @param in  The stream the body is in, starting at its first byte.
+     */
+    public ChunkedInputStream(InputStream in) {
+        this.in = in;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        if (!awaitData()) {
+            return -1;
+        }
+
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Connection closed in the middle of a chunk");
+        }
+
+        parser.skipData(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!awaitData()) {
+            return -1;
+        }
+
+        int read = in.read(b, off, (int) Math.min(len, parser.getDataRemaining()));
+        if (read == -1) {
+            throw new EOFException("Connection closed in the middle of a chunk");
+        }
+
+        parser.skipData(read);
+        return read;
+    }
+
+    /**
+     * Read through the framing up to the next chunk's data.
+     *
+     * @return false if the body has ended instead.
+     */
+    private boolean awaitData() throws IOException {
+        while (!parser.isData()) {
+            if (parser.isComplete()) {
+                return false;
+            }
+
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Connection closed in the middle of a chunked body");
+            }
+
+            framing[0] = (byte) b;
+            try {
+                parser.parse(framing, 0, 1);
+            } catch (HttpException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (!parser.isData()) {
+            return 0;
+        }
+
+        return (int) Math.min(parser.getDataRemaining(), in.available());
+    }
+
+
+    /**
+     * Figure out if the whole body has been read.
+     * @return true if it has.
+     */
+    public boolean isComplete() {
+        return parser.isComplete();
+    }
+
+    /**
+     * Get the trailers sent after the last chunk.
+     * @return The trailers, which is empty until the whole body is read.
+     */
+    public Map<String, String> getTrailers() {
+        return parser.getTrailers();
+    }
+}
@@ -0,0 +1,286 @@
+package httpserver;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A ChunkedParser follows a body sent with {@code Transfer-Encoding:
+ * chunked} (RFC 7230#4.1), telling apart the chunks' data from the framing
+ * around it. <p>
+ *
+ * Like the {@link RequestParser}, it's incremental: it can be handed the
+ * body a piece at a time, however the piece boundaries fall. It stops at the
+ * start of each chunk's data, and leaves the data to the caller, who says
+ * how much of it has gone by with {@link #skipData(long)}. {@link #scan}
+ * does this automatically, for callers that only need to find where the
+ * body ends. <p>
+ *
+ * Chunk extensions are ignored. Trailers are kept, and can be had from
+ * {@link #getTrailers()} once the body is complete.
+ *
+ * @see ChunkedInputStream
+ */
+class ChunkedParser {
+    /** The longest chunk size line, or trailer line, that's accepted */
+    public static final int maxLineLength = 4 * 1024;
+
+    /** The most trailer bytes that are accepted */
+    public static final int maxTrailerSize = 16 * 1024;
+
+    private static final int SIZE = 0;
+    private static final int EXTENSION = 1;
+    private static final int SIZE_LINE_END = 2;
+    private static final int DATA = 3;
+    private static final int DATA_END = 4;
+    private static final int DATA_LINE_END = 5;
+    private static final int TRAILER_START = 6;
+    private static final int TRAILER = 7;
+    private static final int TRAILER_LINE_END = 8;
+    private static final int BODY_END = 9;
+    private static final int COMPLETE = 10;
+
+    private int state = SIZE;
+    private int lineLength = 0;
+    private boolean sawDigit = false;
+
+    private long chunkSize = 0;
+    private long dataRemaining = 0;
+
+    private final StringBuilder trailerLine = new StringBuilder();
+    private int trailerSize = 0;
+    private Map<String, String> trailers;
+
+
+    /**
+     * Figure out if a Transfer-Encoding header's value means the body is
+     * chunked. Chunked has to be the only coding, since no others are
+     * supported.
+     *
+     * @param transferEncoding  The header's value.
+     * @return true if the body is chunked.
+     */
+    public static boolean isChunked(String transferEncoding) {
+        return transferEncoding.trim().equalsIgnoreCase("chunked");
+    }
+
+
+    /**
+     * Follow the framing, up to the start of the next chunk's data, or the
+     * end of the body.
+     *
+     * @param buffer    The bytes the body is in.
+     * @param position  Where to start.
+     * @param limit     How far into the buffer there are bytes to read.
+     * @return Where parsing stopped.
+     * @throws HttpException  When the framing is malformed, or a line is
+     *                        too long.
+     */
+    @SuppressWarnings("fallthrough")
+    public int parse(byte[] buffer, int position, int limit) throws HttpException {
+        while (position < limit && state != DATA && state != COMPLETE) {
+            byte b = buffer[position++];
+
+            if (++lineLength > maxLineLength) {
+                throw new HttpException("Chunk line is longer than " + maxLineLength + " bytes");
+            }
+
+            switch (state) {
+                case SIZE:
+                    int digit = Character.digit(b, 16);
+                    if (digit != -1) {
+                        if (chunkSize > (Long.MAX_VALUE >> 4)) {
+                            throw new HttpException("Chunk is too large");
+                        }
+                        chunkSize = (chunkSize << 4) | digit;
+                        sawDigit = true;
+                    } else if (!sawDigit) {
+                        throw new HttpException("Expected a chunk size");
+                    } else if (b == ';' || b == ' ' || b == '\t') {
+                        state = EXTENSION;
+                    } else if (b == '\r') {
+                        state = SIZE_LINE_END;
+                    } else if (b == '\n') {
+                        endSizeLine();
+                    } else {
+                        throw new HttpException("Malformed chunk size");
+                    }
+                    break;
+
+                case EXTENSION:
+                    if (b == '\r') {
+                        state = SIZE_LINE_END;
+                    } else if (b == '\n') {
+                        endSizeLine();
+                    }
+                    break;
+
+                case SIZE_LINE_END:
+                    expectLineFeed(b);
+                    endSizeLine();
+                    break;
+
+                case DATA_END:
+                    if (b == '\r') {
+                        state = DATA_LINE_END;
+                    } else if (b == '\n') {
+                        startLine(SIZE);
+                    } else {
+                        throw new HttpException("Chunk is longer than its size");
+                    }
+                    break;
+
+                case DATA_LINE_END:
+                    expectLineFeed(b);
+                    startLine(SIZE);
+                    break;
+
+                case TRAILER_START:
+                    if (b == '\r') {
+                        state = BODY_END;
+                        break;
+                    } else if (b == '\n') {
+                        state = COMPLETE;
+                        break;
+                    }
+                    state = TRAILER;
+                    // fall through, the byte is part of the trailer
+                case TRAILER:
+                    if (b == '\r') {
+                        state = TRAILER_LINE_END;
+                    } else if (b == '\n') {
+                        endTrailer();
+                    } else {
+                        if (++trailerSize > maxTrailerSize) {
+                            throw new HttpException("Trailers are larger than " + maxTrailerSize + " bytes");
+                        }
+                        trailerLine.append((char) (b & 0xff));
+                    }
+                    break;
+
+                case TRAILER_LINE_END:
+                    expectLineFeed(b);
+                    endTrailer();
+                    break;
+
+                case BODY_END:
+                    expectLineFeed(b);
+                    state = COMPLETE;
+                    break;
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Follow the framing and skip over the data, until the end of the body
+     * or the end of what's in the buffer.
+     *
+     * @param buffer    The bytes the body is in.
+     * @param position  Where to start.
+     * @param limit     How far into the buffer there are bytes to read.
+     * @return Where scanning stopped.
+     * @throws HttpException  When the framing is malformed.
+     */
+    public int scan(byte[] buffer, int position, int limit) throws HttpException {
+        while (position < limit && state != COMPLETE) {
+            if (state == DATA) {
+                int skipped = (int) Math.min(dataRemaining, limit - position);
+                skipData(skipped);
+                position += skipped;
+            } else {
+                position = parse(buffer, position, limit);
+            }
+        }
+
+        return position;
+    }
+
+
+    private void expectLineFeed(byte b) throws HttpException {
+        if (b != '\n') {
+            throw new HttpException("Expected a line feed after a carriage return");
+        }
+    }
+
+    private void startLine(int state) {
+        this.state = state;
+        this.lineLength = 0;
+    }
+
+    private void endSizeLine() {
+        if (chunkSize == 0) {
+            startLine(TRAILER_START);
+            return;
+        }
+
+        dataRemaining = chunkSize;
+        chunkSize = 0;
+        sawDigit = false;
+        startLine(DATA);
+    }
+
+    private void endTrailer() throws HttpException {
+        int colon = trailerLine.indexOf(":");
+        if (colon <= 0) {
+            throw new HttpException("No key value pair in trailer");
+        }
+
+        if (trailers == null) {
+            trailers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        }
+        trailers.put(trailerLine.substring(0, colon).trim(),
+                trailerLine.substring(colon + 1).trim());
+
+        trailerLine.setLength(0);
+        startLine(TRAILER_START);
+    }
+
+
+    /**
+     * Say that some of the current chunk's data has gone by.
+     * @param count   The number of bytes of data.
+     */
+    public void skipData(long count) {
+        dataRemaining -= count;
+        if (dataRemaining == 0) {
+            startLine(DATA_END);
+        }
+    }
+
+    /**
+     * Figure out if the parser is in the middle of a chunk's data.
+     * @return true if it is.
+     */
+    public boolean isData() {
+        return state == DATA;
+    }
+
+    /**
+     * Get how much of the current chunk's data hasn't gone by yet.
+     * @return The number of bytes.
+     */
+    public long getDataRemaining() {
+        return dataRemaining;
+    }
+
+    /**
+     * Figure out if the entire body, trailers and all, has been parsed.
+     * @return true if it has.
+     */
+    public boolean isComplete() {
+        return state == COMPLETE;
+    }
+
+    /**
+     * Get the trailers sent after the last chunk.
+     * @return The trailers, which is empty until the body is complete, or if
+     *         the client didn't send any.
+     */
+    public Map<String, String> getTrailers() {
+        if (trailers == null) {
+            trailers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        }
+        return trailers;
+    }
+}
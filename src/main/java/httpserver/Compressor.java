@@ -0,0 +1,292 @@
+package httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A Compressor compresses a response body with one of the content codings
+ * HTTP clients understand: gzip (RFC 1952) or deflate (the zlib format, RFC
+ * 1950). It can take the body all at once, or a piece at a time, and the
+ * compressed bytes collect in its output until they're taken. <p>
+ *
+ * Deflaters hold on to native memory until they're ended, and making one
+ * for every response adds up fast, so they're kept in a pool and reused.
+ * A Compressor returns its Deflater to the pool once it's finished.
+ *
+ * @see HttpResponse#setCompression
+ */
+final class Compressor {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /** The most idle Deflaters kept around, of each kind */
+    public static final int maxPooled = 32;
+
+    private static final BlockingQueue<Deflater> gzipPool = new ArrayBlockingQueue<>(maxPooled);
+    private static final BlockingQueue<Deflater> deflatePool = new ArrayBlockingQueue<>(maxPooled);
+
+    private static final byte[] GZIP_HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final boolean gzip;
+    private Deflater deflater;
+    private final CRC32 crc;
+
+    private byte[] output;
+    private int length = 0;
+
+
+    /**
+     * Create a Compressor.
+     * @param coding  The content coding, {@link #GZIP} or {@link #DEFLATE}.
+     */
+    public Compressor(String coding) {
+        this(coding, 1024);
+    }
+
+    /**
+     * Create a Compressor.
+     *
+     * @param coding        The content coding, {@link #GZIP} or
+     *                      {@link #DEFLATE}.
+     * @param outputSize    How much output to make room for at first.
+     */
+    public Compressor(String coding, int outputSize) {
+        gzip = GZIP.equals(coding);
+        output = new byte[Math.max(outputSize, 1024)];
+
+        // gzip has its own header and trailer around raw deflate data.
+        BlockingQueue<Deflater> pool = gzip ? gzipPool : deflatePool;
+        deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+        }
+
+        if (gzip) {
+            crc = new CRC32();
+            append(GZIP_HEADER, GZIP_HEADER.length);
+        } else {
+            crc = null;
+        }
+    }
+
+
+    /**
+     * Pick the content coding to use for a client, going by its
+     * Accept-Encoding header. gzip wins over deflate when the client likes
+     * them just as much, since some clients get deflate wrong.
+     *
+     * @param acceptEncoding  The Accept-Encoding header, or null.
+     * @return {@link #GZIP}, {@link #DEFLATE}, or null to not compress.
+     */
+    public static String negotiate(String acceptEncoding) {
+        float gzipQ = quality(acceptEncoding, GZIP);
+        float deflateQ = quality(acceptEncoding, DEFLATE);
+
+        if (gzipQ > 0 && gzipQ >= deflateQ) {
+            return GZIP;
+        } else if (deflateQ > 0) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Figure out how much a client wants a content coding, going by its
+     * Accept-Encoding header. A client that doesn't send one doesn't get
+     * anything compressed.
+     *
+     * @param acceptEncoding  The Accept-Encoding header, or null.
+     * @param coding          The content coding.
+     * @return The coding's q-value, or 0 if it isn't acceptable.
+     */
+    public static float quality(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return 0;
+        }
+
+        float anyQ = 0;
+        for (String part : acceptEncoding.split(",")) {
+            int semicolon = part.indexOf(';');
+            String name = (semicolon == -1 ? part : part.substring(0, semicolon)).trim();
+            float q = semicolon == -1 ? 1 : parseQuality(part.substring(semicolon + 1));
+
+            if (name.equalsIgnoreCase(coding)
+                    || (coding.equals(GZIP) && name.equalsIgnoreCase("x-gzip"))) {
+                return q;
+            } else if (name.equals("*")) {
+                // A * covers anything that wasn't named.
+                anyQ = q;
+            }
+        }
+        return anyQ;
+    }
+
+    private static float parseQuality(String params) {
+        for (String param : params.split(";")) {
+            param = param.trim();
+            if (param.startsWith("q=") || param.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Figure out if a type of content is worth compressing. Text is; images,
+     * video, archives, and the like are already compressed, and only get
+     * bigger.
+     *
+     * @param mimeType  The Content-Type.
+     * @return true if it's worth compressing.
+     */
+    public static boolean isCompressible(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+
+        int semicolon = mimeType.indexOf(';');
+        String type = (semicolon == -1 ? mimeType : mimeType.substring(0, semicolon))
+            .trim().toLowerCase(Locale.ROOT);
+
+        return type.startsWith("text/")
+            || type.endsWith("+xml")
+            || type.endsWith("+json")
+            || type.equals("application/json")
+            || type.equals("application/javascript")
+            || type.equals("application/xml")
+            || type.equals("application/wasm");
+    }
+
+
+    /**
+     * Compress some more of the body.
+     *
+     * @param b     The bytes.
+     * @param off   Where they start.
+     * @param len   How many there are.
+     */
+    public void update(byte[] b, int off, int len) {
+        if (gzip) {
+            crc.update(b, off, len);
+        }
+
+        deflater.setInput(b, off, len);
+        deflate(Deflater.NO_FLUSH);
+    }
+
+    public void update(ByteBuffer b) {
+        if (gzip) {
+            crc.update(b.duplicate());
+        }
+
+        deflater.setInput(b);
+        deflate(Deflater.NO_FLUSH);
+    }
+
+    /**
+     * Make everything that's been compressed so far available in the output,
+     * so the client can decompress it without waiting for the rest.
+     */
+    public void flush() {
+        deflate(Deflater.SYNC_FLUSH);
+    }
+
+    /**
+     * Finish the body, and give the Deflater back to the pool. The
+     * Compressor can't be used after this, but its output can still be
+     * taken.
+     */
+    public void finish() {
+        deflater.finish();
+        while (!deflater.finished()) {
+            ensureCapacity();
+            length += deflater.deflate(output, length, output.length - length);
+        }
+
+        if (gzip) {
+            long sum = crc.getValue();
+            long size = deflater.getBytesRead();
+            byte[] trailer = {
+                (byte) sum, (byte) (sum >> 8), (byte) (sum >> 16), (byte) (sum >> 24),
+                (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)};
+            append(trailer, trailer.length);
+        }
+
+        release();
+    }
+
+    /**
+     * Give the Deflater back to the pool, without finishing the body. Safe
+     * to call more than once.
+     */
+    public void release() {
+        if (deflater == null) {
+            return;
+        }
+
+        deflater.reset();
+        if (!(gzip ? gzipPool : deflatePool).offer(deflater)) {
+            deflater.end();
+        }
+        deflater = null;
+    }
+
+
+    private void deflate(int flush) {
+        // With a flush, the output isn't all out until there's room to spare.
+        while (true) {
+            ensureCapacity();
+            int space = output.length - length;
+            length += deflater.deflate(output, length, space, flush);
+
+            if (flush == Deflater.NO_FLUSH ? deflater.needsInput() : output.length - length > 0) {
+                return;
+            }
+        }
+    }
+
+    private void ensureCapacity() {
+        if (output.length - length < 512) {
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+    }
+
+    private void append(byte[] b, int len) {
+        if (output.length - length < len) {
+            output = Arrays.copyOf(output, Math.max(output.length * 2, length + len));
+        }
+        System.arraycopy(b, 0, output, length, len);
+        length += len;
+    }
+
+
+    /**
+     * Get the compressed bytes that haven't been taken yet.
+     * @return The output. Only the first {@link #getLength()} bytes are the
+     *         body's.
+     */
+    public byte[] getOutput() {
+        return output;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Say the output's been taken, so there's room for more.
+     */
+    public void clear() {
+        length = 0;
+    }
+}
@@ -0,0 +1,186 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * An EventLoop watches a set of non-blocking connections with a single
+ * {@link Selector}, reading requests as their bytes arrive. <p>
+ *
+ * Nothing on an EventLoop's thread ever blocks; once a connection has a full
+ * request, it's handed off to a worker thread to actually be handled. Any
+ * changes to a connection's selection key made from another thread are
+ * queued up with {@link #execute} and run on the loop's thread.
+ *
+ * @see SelectorServer
+ * @see ChannelConnection
+ */
+class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /** How often idle connections are looked for, in ms */
+    public static final long idleCheckInterval = 1000;
+
+    private final HttpServer server;
+    private final Executor workers;
+    private long lastIdleCheck = System.currentTimeMillis();
+
+    private volatile Thread thread;
+    private volatile boolean running = true;
+
+
+    /**
+     * Create an EventLoop.
+     *
+     * @param server    The server the connections belong to.
+     * @param workers   Where requests are handled once they've been read.
+     * @throws IOException  When a Selector can't be opened.
+     */
+    public EventLoop(HttpServer server, Executor workers) throws IOException {
+        this.selector = Selector.open();
+        this.server = server;
+        this.workers = workers;
+    }
+
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+
+        try {
+            while (running) {
+                selector.select(idleCheckInterval);
+                runTasks();
+                closeIdle();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    ChannelConnection connection = (ChannelConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    } catch (IOException e) {
+                        // The client went away, nothing else to do for it.
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                System.err.println("EventLoop died unexpectedly.");
+                e.printStackTrace();
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+
+    /**
+     * Close every connection that's been waiting on its client for too long.
+     */
+    private void closeIdle() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheck < idleCheckInterval) {
+            return;
+        }
+        lastIdleCheck = now;
+
+        for (SelectionKey key : selector.keys()) {
+            ChannelConnection connection = (ChannelConnection) key.attachment();
+            if (connection != null && connection.isIdle(now)) {
+                connection.close();
+            }
+        }
+    }
+
+
+    /**
+     * Start watching a newly accepted connection. Safe to call from any
+     * thread.
+     *
+     * @param channel   A connected channel, already in non-blocking mode.
+     */
+    public void register(final SocketChannel channel) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new ChannelConnection(EventLoop.this, channel, key));
+            } catch (IOException e) {
+                System.err.println("Couldn't register a new connection.");
+                e.printStackTrace();
+                try {
+                    channel.close();
+                } catch (IOException ignored) { }
+            }
+        });
+    }
+
+
+    /**
+     * Run a task on the loop's thread, as soon as it's free.
+     * @param task  The task to run.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+
+    /**
+     * Tell the loop to stop. Every connection it's watching gets closed.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                ((ChannelConnection) key.attachment()).close();
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Figure out if the current thread is the loop's thread.
+     * @return true if called from inside the loop.
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public HttpServer getServer() {
+        return server;
+    }
+    public Executor getWorkers() {
+        return workers;
+    }
+}
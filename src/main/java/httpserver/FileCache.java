@@ -0,0 +1,354 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A FileCache keeps small, often requested files mapped into memory, so
+ * they can be sent without going to the filesystem for every request. <p>
+ *
+ * Files up to {@link #getMaxFileSize()} are mapped the first time they're
+ * loaded, and kept until the total size of the cache passes
+ * {@link #getMaxSize()}, when the least recently used ones are dropped. <p>
+ *
+ * A cached file is checked for changes (its modification time, size, and
+ * identity) at most once every {@link #getCheckInterval()} ms; if it's
+ * changed, it's dropped and the next request loads it again. In between,
+ * a changed file can be served as it was for up to that long. <p>
+ *
+ * Give one to a {@link StaticFileHandler} to use it:
+ *
+ * <pre>
+ *     StaticFileHandler files = new StaticFileHandler("/var/www");
+ *     files.setCache(new FileCache());
+ * </pre>
+ */
+public class FileCache {
+    /** The default total size of all the cached files */
+    public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /** The default size of the largest file that's cached */
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024;
+
+    /** The default time between checks of a cached file for changes, in ms */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    private final long maxSize;
+    private final long maxFileSize;
+    private long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    // Iterates least recently used first.
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+
+    /**
+     * Create a FileCache with the default limits.
+     */
+    public FileCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_FILE_SIZE);
+    }
+
+    /**
+     * Create a FileCache.
+     *
+     * @param maxSize       The most bytes of files to keep.
+     * @param maxFileSize   The largest file that's kept. Bigger files aren't
+     *                      cached at all.
+     */
+    public FileCache(long maxSize, long maxFileSize) {
+        this.maxSize = maxSize;
+        this.maxFileSize = Math.min(maxFileSize, maxSize);
+    }
+
+
+    /**
+     * Get a file, if it's cached and hasn't changed.
+     *
+     * @param file  The file.
+     * @return The cached file, or null if it isn't cached.
+     */
+    public Entry get(Path file) {
+        long now = System.currentTimeMillis();
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(file);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+
+            if (now - entry.checked < checkInterval) {
+                hits++;
+                return entry;
+            }
+        }
+
+        // It's been a while, make sure the file hasn't changed.
+        if (!entry.isCurrent(file)) {
+            synchronized (this) {
+                remove(file, entry);
+                misses++;
+            }
+            return null;
+        }
+        entry.checked = now;
+
+        synchronized (this) {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Map a file into memory and add it to the cache, dropping the least
+     * recently used files if there isn't room.
+     *
+     * @param file  The file.
+     * @return The cached file, or null if it's too big to cache, or can't be
+     *         read.
+     */
+    public Entry load(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || attributes.size() > maxFileSize) {
+                return null;
+            }
+
+            ByteBuffer contents;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, attributes.size());
+            }
+
+            Entry entry = new Entry(contents, attributes);
+            synchronized (this) {
+                Entry old = entries.put(file, entry);
+                if (old != null) {
+                    size -= old.size();
+                }
+                size += entry.size();
+
+                evict();
+            }
+
+            return entry;
+        } catch (IOException e) {
+            System.err.println("Couldn't cache " + file);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Remember that a file doesn't exist, so the next time it's looked for,
+     * that can be found out without going to the filesystem. It's checked
+     * for again just like a cached file is checked for changes.
+     *
+     * @param file  The file.
+     */
+    public void addMissing(Path file) {
+        Entry entry = new Entry();
+        synchronized (this) {
+            Entry old = entries.put(file, entry);
+            if (old != null) {
+                size -= old.size();
+            }
+        }
+    }
+
+    /**
+     * Drop a file from the cache.
+     * @param file  The file.
+     */
+    public synchronized void invalidate(Path file) {
+        Entry entry = entries.remove(file);
+        if (entry != null) {
+            size -= entry.size();
+        }
+    }
+
+    /**
+     * Drop every file from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+
+    private void remove(Path file, Entry entry) {
+        // Another thread could have already loaded it again.
+        if (entries.get(file) == entry) {
+            entries.remove(file);
+            size -= entry.size();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, Entry>> oldest = entries.entrySet().iterator();
+        while (size > maxSize && oldest.hasNext()) {
+            size -= oldest.next().getValue().size();
+            oldest.remove();
+            evictions++;
+        }
+    }
+
+
+    /**
+     * A mapped file, and what the file looked like when it was mapped. Or,
+     * a note that a file doesn't exist.
+     */
+    public static class Entry {
+        private final ByteBuffer contents;
+        private final long lastModified;
+        private final long length;
+        private final Object fileKey;
+        private volatile long checked;
+
+        private Entry(ByteBuffer contents, BasicFileAttributes attributes) {
+            this.contents = contents;
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.length = attributes.size();
+            this.fileKey = attributes.fileKey();
+            this.checked = System.currentTimeMillis();
+        }
+
+        private Entry() {
+            this.contents = null;
+            this.lastModified = -1;
+            this.length = 0;
+            this.fileKey = null;
+            this.checked = System.currentTimeMillis();
+        }
+
+        private long size() {
+            return contents == null ? 0 : contents.capacity();
+        }
+
+        private boolean isCurrent(Path file) {
+            if (contents == null) {
+                return Files.notExists(file);
+            }
+
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return attributes.lastModifiedTime().toMillis() == lastModified
+                    && attributes.size() == length
+                    && Objects.equals(attributes.fileKey(), fileKey);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Figure out if the file exists, or if the entry just says it
+         * doesn't.
+         * @return true if the file exists.
+         * @see FileCache#addMissing
+         */
+        public boolean exists() {
+            return contents != null;
+        }
+
+        /**
+         * Get the file's contents.
+         * @return The contents, from position 0 to the limit. The buffer is
+         *         the caller's own, but the bytes in it are shared. Null if
+         *         the file doesn't exist.
+         */
+        public ByteBuffer getContents() {
+            return contents == null ? null : contents.duplicate();
+        }
+
+        /**
+         * Get when the file was last modified, as of when it was loaded.
+         * @return The time, in ms since the epoch.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+
+    /*********************
+      GETTERS AND SETTERS
+     *********************/
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Set how often a cached file is checked for changes.
+     * @param checkInterval   The time between checks, in ms. 0 checks on
+     *                        every request.
+     */
+    public void setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+    public long getCheckInterval() {
+        return checkInterval;
+    }
+
+    /**
+     * Get the total size of the cached files.
+     * @return The size, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the number of cached files.
+     * @return The number of files.
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * Get how many times a file was found in the cache.
+     * @return The number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get how many times a file wasn't in the cache, or had changed.
+     * @return The number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get how many files were dropped to make room for others.
+     * @return The number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,207 @@
+package httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An HttpConnection is a single client connection, which may carry any
+ * number of requests. <p>
+ *
+ * HTTP/1.1 connections are persistent unless the client says otherwise, and
+ * HTTP/1.0 connections only persist if the client asks for it with a
+ * {@code Connection: keep-alive} header. Either way, a connection is closed
+ * once it's made {@link HttpServer#getMaxRequestsPerConnection()} requests.
+ * <p>
+ *
+ * Clients may pipeline requests, sending the next before the last one's
+ * response arrives. Pipelined requests are handled strictly in the order
+ * they were sent, and their responses are held back and flushed together,
+ * up to {@link HttpServer#getPipelineDepth()} at a time, so a batch of small
+ * requests doesn't cost a write to the client apiece. <p>
+ *
+ * Subclasses take care of actually getting bytes to and from the client.
+ *
+ * @see SocketConnection
+ * @see ChannelConnection
+ */
+abstract class HttpConnection implements Runnable {
+    private final HttpServer server;
+    private int requestCount = 0;
+    private int unflushed = 0;
+
+
+    public HttpConnection(HttpServer server) {
+        this.server = server;
+    }
+
+
+    /**
+     * Parse, handle, and respond to a single request.
+     *
+     * @param request   A request waiting to be parsed.
+     * @return true if the connection should be kept open for another request.
+     */
+    protected boolean exchange(HttpRequest request) {
+        requestCount++;
+
+        request.setCaptureRequest(getServer().isCaptureRequests());
+
+        HttpResponse response;
+        try {
+            request.parseRequest();
+            response = new HttpResponse(request);
+        } catch (HttpException e) {
+            respondAndClose(e);
+            return false;
+        } catch (IOException e) {
+            // The client went away, or stopped sending, mid-request.
+            return false;
+        }
+
+        // This has to be decided before the handler runs, in case it streams
+        // the response, and the headers go out before it's done.
+        response.setKeepAlive(request.isKeepAlive()
+                && requestCount < getServer().getMaxRequestsPerConnection());
+        response.setCompression(getServer().isCompression());
+
+        try {
+            request.determineHandler().handle(request, response);
+        } catch (RuntimeException e) {
+            System.err.println("The handler for " + request.getFullPath()
+                    + " threw an exception");
+
+            // A streamed response has already started going out, so the
+            // only way to tell the client it's broken is to hang up.
+            if (response.isStreaming()) {
+                e.printStackTrace();
+                return false;
+            }
+
+            respondWithError(request, e);
+            return false;
+        }
+
+        if (!request.discardBody()) {
+            response.setKeepAlive(false);
+        }
+        response.respond();
+
+        if (!response.isKeepAlive()) {
+            return false;
+        }
+
+        try {
+            unflushed++;
+            if (unflushed >= getServer().getPipelineDepth() || !hasPipelinedRequest()) {
+                getOutputStream().flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Answer a request whose handler threw an exception with a 500. Whatever
+     * the handler set up on its response is thrown away, and the connection
+     * isn't kept open, since the handler may not have read the whole body.
+     *
+     * @param request   The request.
+     * @param e         What the handler threw.
+     */
+    private void respondWithError(HttpRequest request, RuntimeException e) {
+        try {
+            HttpResponse response = new HttpResponse(request);
+            response.setKeepAlive(false);
+            response.error(500, HttpResponse.EXCEPTION_ERROR, e);
+            response.respond();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Figure out if the client has already sent another request, which
+     * will be handled as soon as the current one is done.
+     *
+     * @return true if there's a pipelined request waiting.
+     * @throws IOException  When the connection can't be checked.
+     */
+    protected abstract boolean hasPipelinedRequest() throws IOException;
+
+
+    /**
+     * Send a final message to the client, and close the connection.
+     *
+     * @param code      An HTTP status code.
+     * @param message   The message to send.
+     */
+    protected void respondAndClose(int code, String message) {
+        HttpRequest request = new HttpRequest(getServer().getRouter(),
+                getInputStream(), getOutputStream());
+
+        try {
+            HttpResponse response = new HttpResponse(request);
+            response.message(code, message);
+            response.respond();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close();
+        }
+    }
+
+
+    /**
+     * Tell the client what was wrong with its request, and close the
+     * connection.
+     *
+     * @param e   What was wrong.
+     */
+    protected void respondAndClose(HttpException e) {
+        if (e.getCode() == 400) {
+            respondAndClose(400, HttpResponse.MALFORMED_INPUT_ERROR);
+        } else {
+            respondAndClose(e.getCode(), e.getMessage());
+        }
+    }
+
+
+    /**
+     * Tell the client the server is too busy to take the connection.
+     */
+    public void reject() {
+        respondAndClose(503, HttpResponse.SERVICE_UNAVAILABLE_ERROR);
+    }
+
+
+    /**
+     * Get the stream requests are read from.
+     * @return The connection's InputStream.
+     */
+    protected abstract InputStream getInputStream();
+
+    /**
+     * Get the stream responses are written to.
+     * @return The connection's OutputStream.
+     */
+    protected abstract OutputStream getOutputStream();
+
+    /**
+     * Close the connection. Safe to call more than once.
+     */
+    public abstract void close();
+
+
+    public HttpServer getServer() {
+        return server;
+    }
+    public int getRequestCount() {
+        return requestCount;
+    }
+}
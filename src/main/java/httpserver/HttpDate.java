@@ -0,0 +1,104 @@
+package httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpDate takes care of dates the way HTTP writes them (RFC 7231#7.1.1.1),
+ * like {@code Sun, 06 Nov 1994 08:49:37 GMT}. <p>
+ *
+ * Every response gets a Date header. Rather than formatting the date for
+ * each one, a background thread formats it once a second, and responses
+ * copy the bytes it made. The date can be up to a second behind, which is
+ * all the precision the header has anyway.
+ */
+final class HttpDate {
+    private static final DateTimeFormatter format = DateTimeFormatter
+        .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+        .withZone(ZoneOffset.UTC);
+
+    // The two obsolete formats clients can still send (RFC 7231#7.1.1.1).
+    private static final DateTimeFormatter rfc850Format = new DateTimeFormatterBuilder()
+        .appendPattern("EEEE, dd-MMM-")
+        .appendValueReduced(ChronoField.YEAR, 2, 2, 1970)
+        .appendPattern(" HH:mm:ss 'GMT'")
+        .toFormatter(Locale.US)
+        .withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter asctimeFormat = DateTimeFormatter
+        .ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US)
+        .withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter[] parsers = {
+        DateTimeFormatter.RFC_1123_DATE_TIME, rfc850Format, asctimeFormat};
+
+    // The whole Date header line, as of the last tick.
+    private static volatile byte[] dateHeader;
+
+    static {
+        tick();
+
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "httpserver-date");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Tick just after each second starts, so the date changes when the
+        // clock's does.
+        long untilNextSecond = 1000 - System.currentTimeMillis() % 1000;
+        ticker.scheduleAtFixedRate(HttpDate::tick, untilNextSecond, 1000, TimeUnit.MILLISECONDS);
+    }
+
+
+    private HttpDate() {}
+
+
+    private static void tick() {
+        dateHeader = ("Date: " + format(System.currentTimeMillis()) + "\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Get the Date header line for right now, including the line ending.
+     * @return The header, in bytes. Don't change it, it's shared.
+     */
+    public static byte[] getDateHeader() {
+        return dateHeader;
+    }
+
+    /**
+     * Format a time as an HTTP date.
+     * @param millis  The time, in ms since the epoch.
+     * @return The date.
+     */
+    public static String format(long millis) {
+        return format.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * Parse an HTTP date, in any of the three formats HTTP has used.
+     * @param date  The date.
+     * @return The time, in ms since the epoch, or -1 if it isn't a date.
+     */
+    public static long parse(String date) {
+        date = date.trim();
+        for (DateTimeFormatter parser : parsers) {
+            try {
+                return ZonedDateTime.parse(date, parser).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // Try the next one.
+            }
+        }
+        return -1;
+    }
+}
@@ -3,11 +3,15 @@ package httpserver;
 /**
  * An HttpException is just a generic exception.
  *
- * We just use it when something bad happens with us...
+ * We just use it when something bad happens with us... When it's the
+ * client's fault, it carries the status code to answer with, which is 400
+ * (Bad Request) unless something more specific fits.
  */
 public class HttpException extends Exception {
     private static final long serialVersionUID = -1318922991257945983L;
 
+    private int code = 400;
+
     public HttpException() {
         super();
     }
@@ -16,6 +20,18 @@ public class HttpException extends Exception {
         super(message);
     }
 
+    /**
+     * Create an HttpException for a request that should get a specific
+     * error response.
+     *
+     * @param code      The HTTP status code to respond with.
+     * @param message   What went wrong.
+     */
+    public HttpException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
     public HttpException(String message, Exception e) {
         super(message, e);
     }
@@ -23,4 +39,13 @@ public class HttpException extends Exception {
     public HttpException(Exception e) {
         super(e);
     }
+
+
+    /**
+     * Get the status code the client should be answered with.
+     * @return The status code.
+     */
+    public int getCode() {
+        return code;
+    }
 }
@@ -2,9 +2,9 @@ package httpserver;
 
 import java.io.DataOutputStream;
 import java.net.Socket;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.ArrayList;
 
 /**
  * An HttpHandler is what all handlers used by your server descend from. <p>
@@ -22,7 +22,13 @@ import java.util.ArrayList;
  * @see MessageHandler
  */
 public abstract class HttpHandler {
-    private final HashMap<String, ArrayList<Route>> routes = new HashMap<>();
+    // Indexed by HttpMethod ordinal. Other methods are looked up by name.
+    private final RouteTree[] routes = new RouteTree[HttpMethod.values().length];
+    // Kept in the order they're added, so Allow lists them the same way every time
+    private final Map<String, RouteTree> otherRoutes = new LinkedHashMap<>();
+
+    // Every method the handler has routes for, on any path, in Allow header form
+    private String allow = "";
 
     private Socket socket;
     private DataOutputStream writer;
@@ -51,8 +57,15 @@ public abstract class HttpHandler {
      * the data behind the addGET, addPOST, and addDELETE methods for determining
      * the correct action to take. <p>
      *
-     * If there is not exact match, the `*` path is used. If you don't have a `*`
-     * catchall route, a 501 (Not implemented) is sent to the client.
+     * A literal path segment beats a {@code {param}}, which beats a
+     * {@code {*}}, so if there's no exact match, the route with the most
+     * literal segments that does match is used. <p>
+     *
+     * If no route for the request's method matches, but routes for other
+     * methods do, the client gets a 405 (Method Not Allowed), with an Allow
+     * header listing those methods. If nothing matches the path at all, a
+     * 501 (Not implemented) is sent instead. HEAD requests use the GET
+     * routes, unless there are HEAD routes of their own.
      *
      * @param request     The incoming HttpRequest.
      * @param response    The outgoing HttpResponse, waiting to be filled by an
@@ -61,36 +74,28 @@ public abstract class HttpHandler {
      * @see HttpHandler#addGET
      * @see HttpHandler#addPOST
      * @see HttpHandler#addDELETE
+     * @see RouteTree
      * @see HttpResponse#NOT_A_METHOD_ERROR
      */
     public void handle(HttpRequest request, HttpResponse response) {
-        String httpRequestType = request.getRequestType().toUpperCase();
-        if (!routes.containsKey(httpRequestType)) {
-            response.message(501, "No " + httpRequestType + " routes exist.");
+        List<String> path = request.getSplitPath();
+        RouteTree tree = getRoutes(request);
+        Route route = tree == null ? null : tree.find(path, request.getPathDepth());
+        if (route != null) {
+            route.invoke(request, response);
             return;
         }
 
-        Route route = null;
-        int bestFit = 0;
-        for (Route testRoute : routes.get(httpRequestType)) {
-            if (testRoute.matchesPerfectly(request.getSplitPath())) {
-                route = testRoute;
-                break;
-            }
-
-            int testScore = testRoute.howCorrect(request.getSplitPath());
-            if (testScore > bestFit) {
-                route = testRoute;
-                bestFit = testScore;
-            }
-        }
-
-        if (route == null) {
+        // Only worked out for misses, so a normal request doesn't pay for it.
+        String methods = getAllowedMethods(path, request.getPathDepth());
+        if (!methods.isEmpty()) {
+            response.setHeader("Allow", methods);
+            response.message(405, "No " + request.getRequestType() + " route for this path.");
+        } else if (tree == null) {
+            response.message(501, "No " + request.getRequestType() + " routes exist.");
+        } else {
             response.message(501, HttpResponse.NOT_A_METHOD_ERROR);
-            return;
         }
-
-        route.invoke(request, response);
     }
 
     /**
@@ -128,7 +133,7 @@ public abstract class HttpHandler {
      * @see HttpRequest
      */
     public void get(Route route) {
-        addRoute(HttpRequest.GET_REQUEST_TYPE, route);
+        addRoute(HttpMethod.GET, route);
     }
 
     /**
@@ -144,7 +149,7 @@ public abstract class HttpHandler {
      * @see HttpHandler#addDELETE
      */
     public void post(Route route) {
-        addRoute(HttpRequest.POST_REQUEST_TYPE, route);
+        addRoute(HttpMethod.POST, route);
     }
 
     /**
@@ -160,14 +165,18 @@ public abstract class HttpHandler {
      * @see HttpHandler#addPOST
      */
     public void delete(Route route) {
-        addRoute(HttpRequest.DELETE_REQUEST_TYPE, route);
+        addRoute(HttpMethod.DELETE, route);
     }
 
     /**
      * Add a method to a path in a map. <p>
      *
      * Methods are passed in using "methodName", meaning they must be a member of
-     * the current handler.
+     * the current handler. <p>
+     *
+     * A standard method's name can be given in any case, and is the same as
+     * its {@link HttpMethod}. Any other method only matches requests that
+     * use exactly the same case, since methods are case-sensitive.
      *
      * @param httpMethod    The HTTP method this route will match to.
      * @param path	    Path to match.
@@ -176,13 +185,105 @@ public abstract class HttpHandler {
      * @throws HttpException  When you do bad things.
      */
     public void addRoute(String httpMethod, Route route) {
-        httpMethod = httpMethod.toUpperCase();
+        HttpMethod method = HttpMethod.forName(httpMethod);
+        if (method != null) {
+            addRoute(method, route);
+            return;
+        }
+
+        if (!otherRoutes.containsKey(httpMethod)) {
+            otherRoutes.put(httpMethod, new RouteTree());
+            updateAllow();
+        }
+
+        otherRoutes.get(httpMethod).add(route);
+    }
+
+    /**
+     * Add a route for one of the standard HTTP methods.
+     *
+     * @param method  The HTTP method this route will match to.
+     * @param route   The Route to be called at its path.
+     */
+    public void addRoute(HttpMethod method, Route route) {
+        if (routes[method.ordinal()] == null) {
+            routes[method.ordinal()] = new RouteTree();
+            updateAllow();
+        }
+
+        routes[method.ordinal()].add(route);
+    }
+
+    /**
+     * Find the routes for a request's method.
+     * @return The routes, or null if there aren't any.
+     */
+    private RouteTree getRoutes(HttpRequest request) {
+        HttpMethod method = request.getMethod();
+        if (method == null) {
+            return otherRoutes.get(request.getRequestType());
+        }
+        return getRoutes(method);
+    }
+
+    private RouteTree getRoutes(HttpMethod method) {
+        RouteTree tree = routes[method.ordinal()];
+        if (tree == null && method == HttpMethod.HEAD) {
+            tree = routes[HttpMethod.GET.ordinal()];
+        }
+        return tree;
+    }
+
+    /**
+     * Work out the list of every method with a route, whenever a method
+     * gets its first one, for {@link #getAllow()}. A 405's Allow header only
+     * lists the methods with a route for its path, so that's worked out on
+     * each miss instead.
+     */
+    private void updateAllow() {
+        allow = getAllowedMethods(null, 0);
+    }
 
-        if (!routes.containsKey(httpMethod)) {
-            routes.put(httpMethod, new ArrayList<>());
+    /**
+     * List the methods that have a route for a path. The standard methods
+     * come first, in the order {@link HttpMethod} has them, and then any
+     * others, in the order they got their first route.
+     *
+     * @param path  The path, split by {@code /}, or null for any path.
+     * @param from  Where in the path the handler's routes start.
+     * @return The methods, in Allow header form, or an empty string if there
+     *         aren't any.
+     */
+    private String getAllowedMethods(List<String> path, int from) {
+        StringBuilder b = new StringBuilder();
+        for (HttpMethod method : HttpMethod.values()) {
+            if (hasRoute(getRoutes(method), path, from)) {
+                b.append(b.length() == 0 ? "" : ", ").append(method.name());
+            }
         }
+        for (Map.Entry<String, RouteTree> entry : otherRoutes.entrySet()) {
+            if (hasRoute(entry.getValue(), path, from)) {
+                b.append(b.length() == 0 ? "" : ", ").append(entry.getKey());
+            }
+        }
+
+        return b.toString();
+    }
+
+    private static boolean hasRoute(RouteTree tree, List<String> path, int from) {
+        return tree != null && (path == null || tree.find(path, from) != null);
+    }
 
-        routes.get(httpMethod).add(route);
+
+    /**
+     * Get the methods the handler has routes for, on any path. This isn't
+     * what a 405 sends; its Allow header only lists the methods that have a
+     * route for the request's path.
+     * @return The methods, in Allow header form, like {@code GET, HEAD, POST}.
+     *         Empty if there aren't any routes.
+     */
+    public String getAllow() {
+        return allow;
     }
 
 
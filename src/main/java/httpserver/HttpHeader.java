@@ -0,0 +1,182 @@
+package httpserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An HttpHeader is one of the well-known HTTP header names. <p>
+ *
+ * When a request is parsed, each header's name is looked up in a small hash
+ * table of these, ignoring case. Headers with well-known names can then be
+ * found in constant time with {@link HttpRequest#getHeader(HttpHeader)}, and
+ * their names never need a new String; the HttpHeader's own name is used
+ * instead. Any other header is still available, it's just found by name.
+ *
+ * @see HttpRequest#getHeader(HttpHeader)
+ */
+public enum HttpHeader {
+    ACCEPT("Accept"),
+    ACCEPT_CHARSET("Accept-Charset"),
+    ACCEPT_ENCODING("Accept-Encoding"),
+    ACCEPT_LANGUAGE("Accept-Language"),
+    ACCEPT_RANGES("Accept-Ranges"),
+    AUTHORIZATION("Authorization"),
+    CACHE_CONTROL("Cache-Control"),
+    CONNECTION("Connection"),
+    CONTENT_DISPOSITION("Content-Disposition"),
+    CONTENT_ENCODING("Content-Encoding"),
+    CONTENT_LENGTH("Content-Length"),
+    CONTENT_RANGE("Content-Range"),
+    CONTENT_TYPE("Content-Type"),
+    COOKIE("Cookie"),
+    DATE("Date"),
+    DNT("DNT"),
+    ETAG("ETag"),
+    EXPECT("Expect"),
+    FORWARDED("Forwarded"),
+    HOST("Host"),
+    IF_MATCH("If-Match"),
+    IF_MODIFIED_SINCE("If-Modified-Since"),
+    IF_NONE_MATCH("If-None-Match"),
+    IF_RANGE("If-Range"),
+    IF_UNMODIFIED_SINCE("If-Unmodified-Since"),
+    KEEP_ALIVE("Keep-Alive"),
+    LAST_MODIFIED("Last-Modified"),
+    ORIGIN("Origin"),
+    PRAGMA("Pragma"),
+    RANGE("Range"),
+    REFERER("Referer"),
+    SEC_FETCH_DEST("Sec-Fetch-Dest"),
+    SEC_FETCH_MODE("Sec-Fetch-Mode"),
+    SEC_FETCH_SITE("Sec-Fetch-Site"),
+    SEC_FETCH_USER("Sec-Fetch-User"),
+    TE("TE"),
+    TRAILER("Trailer"),
+    TRANSFER_ENCODING("Transfer-Encoding"),
+    UPGRADE("Upgrade"),
+    UPGRADE_INSECURE_REQUESTS("Upgrade-Insecure-Requests"),
+    USER_AGENT("User-Agent"),
+    VARY("Vary"),
+    VIA("Via"),
+    X_FORWARDED_FOR("X-Forwarded-For"),
+    X_FORWARDED_PROTO("X-Forwarded-Proto"),
+    X_REQUESTED_WITH("X-Requested-With");
+
+    // An open addressing hash table, big enough to stay mostly empty.
+    private static final HttpHeader[] table = new HttpHeader[128];
+
+    static {
+        for (HttpHeader header : values()) {
+            int i = header.hash & (table.length - 1);
+            while (table[i] != null) {
+                i = (i + 1) & (table.length - 1);
+            }
+            table[i] = header;
+        }
+    }
+
+    private final String name;
+    private final byte[] lowerName;
+    private final int hash;
+
+
+    HttpHeader(String name) {
+        this.name = name;
+        this.lowerName = name.toLowerCase().getBytes(StandardCharsets.US_ASCII);
+
+        int h = 0;
+        for (byte b : lowerName) {
+            h = 31 * h + b;
+        }
+        this.hash = mix(h);
+    }
+
+
+    /**
+     * Get the header's name, in its usual capitalization.
+     * @return The header's name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+
+    /**
+     * Find the well-known header with a name, ignoring case, without creating
+     * any Strings.
+     *
+     * @param buffer  The bytes the name is in.
+     * @param start   Where the name starts.
+     * @param end     Where the name ends.
+     * @return The header, or null if it isn't a well-known one.
+     */
+    static HttpHeader lookup(byte[] buffer, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + toLower(buffer[i]);
+        }
+
+        for (int i = mix(h) & (table.length - 1); table[i] != null; i = (i + 1) & (table.length - 1)) {
+            byte[] candidate = table[i].lowerName;
+            if (candidate.length != end - start) {
+                continue;
+            }
+
+            int j = 0;
+            while (j < candidate.length && toLower(buffer[start + j]) == candidate[j]) {
+                j++;
+            }
+
+            if (j == candidate.length) {
+                return table[i];
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Find the well-known header with a name, ignoring case.
+     *
+     * @param name    The header's name.
+     * @return The header, or null if it isn't a well-known one.
+     */
+    public static HttpHeader forName(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + toLower(name.charAt(i));
+        }
+
+        for (int i = mix(h) & (table.length - 1); table[i] != null; i = (i + 1) & (table.length - 1)) {
+            byte[] candidate = table[i].lowerName;
+            if (candidate.length != name.length()) {
+                continue;
+            }
+
+            int j = 0;
+            while (j < candidate.length && toLower(name.charAt(j)) == candidate[j]) {
+                j++;
+            }
+
+            if (j == candidate.length) {
+                return table[i];
+            }
+        }
+
+        return null;
+    }
+
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 7) ^ (h >>> 16);
+    }
+}
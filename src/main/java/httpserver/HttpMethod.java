@@ -0,0 +1,82 @@
+package httpserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An HttpMethod is one of the standard HTTP request methods (RFC 7231, and
+ * PATCH from RFC 5789). <p>
+ *
+ * A request's method is figured out once, when its request line is parsed,
+ * and handlers keep their routes in an array indexed by the method's
+ * ordinal, so finding the routes for a request doesn't take any String
+ * comparisons. Requests with any other method still work, they just don't
+ * have an HttpMethod. <p>
+ *
+ * Methods are case-sensitive (RFC 9110#9.1), so a request for {@code get}
+ * isn't a GET.
+ *
+ * @see HttpRequest#getMethod()
+ * @see HttpHandler#addRoute
+ */
+public enum HttpMethod {
+    GET,
+    HEAD,
+    POST,
+    PUT,
+    DELETE,
+    PATCH,
+    OPTIONS,
+    TRACE,
+    CONNECT;
+
+    private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+
+
+    /**
+     * Find the method a parsed request line has, without creating any
+     * Strings.
+     *
+     * @param head    The parsed request head.
+     * @param buffer  The bytes it was parsed from.
+     * @return The method, or null if it isn't a standard one.
+     */
+    static HttpMethod lookup(RequestParser head, byte[] buffer) {
+        for (HttpMethod method : values()) {
+            if (head.methodEquals(buffer, method.bytes)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the method with a name, matching its case exactly, the way a
+     * request's method is matched.
+     *
+     * @param name    The method's name.
+     * @return The method, or null if it isn't a standard one.
+     */
+    static HttpMethod lookup(String name) {
+        for (HttpMethod method : values()) {
+            if (method.name().equals(name)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the method with a name, ignoring case.
+     *
+     * @param name    The method's name.
+     * @return The method, or null if it isn't a standard one.
+     */
+    public static HttpMethod forName(String name) {
+        for (HttpMethod method : values()) {
+            if (method.name().equalsIgnoreCase(name)) {
+                return method;
+            }
+        }
+        return null;
+    }
+}
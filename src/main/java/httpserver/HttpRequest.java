@@ -1,24 +1,32 @@
 package httpserver;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.URLDecoder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * An HttpRequest takes an incoming connection and parses out all of the
  * relevant data, supposing the connection follows HTTP protocol.
  *
- * At present, HttpRequest only knows how to handle HTTP 1.1 requests, and
- * doesn't handle persistent connections. Technically, it could handle an
- * HTTP 1.0 request, because 1.0 doesn't have persistent connections.
+ * An HttpRequest only ever reads a single request off of its input stream.
+ * Persistent connections are handled by an {@link HttpConnection}, which
+ * creates a new HttpRequest for each request the client sends over the same
+ * connection.
  *
  * @see   <a href="http://www.w3.org/Protocols/rfc2616/rfc2616.html">
  *        HTTP 1.1 Spec</a>
@@ -40,47 +48,86 @@ public class HttpRequest implements Runnable {
     /** HTTP PUT request type */
     public static final String PUT_REQUEST_TYPE = "PUT";
 
+    /** The content type of a POST body that's parsed into parameters */
+    public static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
 
     // used to determine what one does with the request
     private HttpRouter router;
 
-    // connection with client
+    // connection with client, null when the request didn't come in over a
+    // plain Socket
     private Socket connection;
 
+    // where the request is read from
+    private RequestInput inputStream;
+
+    // where the response gets written to
+    private OutputStream outputStream;
+
     // the handler used to determine what the server actually does
     // with this request
     private HttpHandler handler;
 
     // the full text of the incoming request, including headers
-    // and sent over data
+    // and sent over data. Only kept if captureRequest is set.
     private String httpRequest;
 
+    // whether to keep the full text of the request around
+    private boolean captureRequest = false;
+
     // the request line, or first line of entire request
     private String requestLine;
 
     // the type of request, as in GET, POST, ...
     private String requestType;
 
+    // the type of request, or null if it isn't a standard one
+    private HttpMethod method;
+
     // the protocol the client is using
     private String requestProtocol;
 
-    // All headers, because they're all key/value pairs
-    private Map<String, String> headers = new HashMap<>();
+    // All headers, because they're all key/value pairs. Left null until
+    // someone asks for them, they're read out of the parsed head instead.
+    private Map<String, String> headers;
+
+    // the parsed request head, and the buffer it was parsed in
+    private RequestParser head;
+    private byte[] headBuffer;
 
     // The requested path, split by '/'
     private List<String> splitPath = new ArrayList<>();
 
-    // The path relative to the handler's path
+    // The path relative to the handler's path, cut out when it's asked for
     private String path;
 
+    // The number of segments in the prefix the handler's mounted at
+    private int pathDepth = 0;
+
     // the full path
     private String fullPath;
 
-    // the POST data
+    // the request's body, which is read as the handler asks for it
+    private RequestBody body;
+
+    // decodes the body, if it was sent in chunks
+    private ChunkedInputStream chunks;
+
+    // the GET and POST data, and parameters from the path
     private Map<String, String> params = new HashMap<>();
 
+    // whether a POST body has been checked for form data yet
+    private boolean formParsed = false;
+
     private List<String> varargs = new ArrayList<>();
 
+    // the route that matched the path, which path parameters are read out of
+    private Route route;
+
+    // whether the route's parameters have been copied into params and varargs
+    private boolean routeMerged = false;
+
 
     /**
      * Used to parse out an HTTP request provided a Socket and figure out the
@@ -97,14 +144,32 @@ public class HttpRequest implements Runnable {
      * @see HttpRequest#parseRequest
      */
     public HttpRequest(HttpRouter router, Socket connection) throws IOException, SocketException, HttpException {
-        this.router = router;
+        this(router, new RequestInput(connection.getInputStream()),
+                new BufferedOutputStream(connection.getOutputStream()));
         connection.setKeepAlive(true);
         setConnection(connection);
     }
 
+    /**
+     * Used to parse out an HTTP request from a pair of streams, instead of a
+     * Socket. <p>
+     *
+     * This is what lets requests come in from something other than a blocking
+     * Socket, like the {@link SelectorServer}.
+     *
+     * @param router  The router used to find the request's handler.
+     * @param input   Where the request will be read from.
+     * @param output  Where the response will be written to.
+     */
+    public HttpRequest(HttpRouter router, InputStream input, OutputStream output) {
+        this.router = router;
+        setInputStream(input);
+        setOutputStream(output);
+    }
+
     @Override
     public void run() {
-        if (getConnection().isClosed()) {
+        if (getConnection() != null && getConnection().isClosed()) {
             System.out.println("Socket is closed...");
         }
 
@@ -133,91 +198,90 @@ public class HttpRequest implements Runnable {
      *                          issue, and not a server issue, but it gets thrown
      *                          upstream because it can't be dealt with until it
      *                          gets to the HttpServer.
-     * @throws HttpException    When headers aren't in key/value pairs separated
-     *                          by ": ".
+     * @throws HttpException    When the request line or headers don't follow
+     *                          the HTTP spec.
      *
      * @see HttpServer
+     * @see RequestParser
      */
     public void parseRequest() throws IOException, SocketException, HttpException {
-        // Used to read in from the socket
-        BufferedReader input = new BufferedReader(
-                new InputStreamReader(getConnection().getInputStream()));
-
-        StringBuilder requestBuilder = new StringBuilder();
+        RequestInput input = (RequestInput) getInputStream();
 
-        /*  The HTTP spec (Section 4.1) says that a blank first line should be
-            ignored, and that the next line SHOULD have the request line. To be
-            extra sure, all initial blank lines are discarded.
+        /*  The head (request line and headers) is parsed right where it sits
+            in the connection's buffer. See RequestParser for the details of
+            what is and isn't accepted.
             */
-        String firstLine = input.readLine();
-        if (firstLine == null) {
-            throw new HttpException("Input is returning nulls...");
+        RequestParser head = input.readHead();
+        byte[] buffer = input.getBuffer();
+
+        this.requestLine = head.getRequestLine(buffer);
+        HttpMethod known = HttpMethod.lookup(head, buffer);
+        if (known != null) {
+            this.method = known;
+            this.requestType = known.name();
+        } else {
+            setRequestType(head.getMethod(buffer));
         }
+        setFullPath(head.getTarget(buffer));
+        setRequestProtocol(head.getProtocol(buffer));
 
-        while (firstLine.isEmpty()) {
-            firstLine = input.readLine();
-        }
-
-        // start with the first non-empty line.
-        setRequestLine(firstLine);
-        requestBuilder.append(getRequestLine());
-        requestBuilder.append("\n");
-
-        /*  Every line after the first, but before an empty line is a header,
-            which is a key/value pair.
+        // Headers aren't turned into Strings until someone asks for them.
+        this.head = head;
+        this.headBuffer = buffer;
 
-            The key is before the ": ", the value, after
+        String request = null;
+        if (isCaptureRequest()) {
+            request = new String(buffer, head.getStart(),
+                    head.getHeadEnd() - head.getStart(), StandardCharsets.ISO_8859_1);
+        }
 
-            TODO: parse this to spec. Spec says it's cool to have any number of
-            whitespace characters following the colon, and the values
-            can be spread accross multiple lines provided each following line
-            starts with a whitespace character.
 
-            For more information, see issue 12 and RFC 2616#4.2.
-            Issue 12: https://github.com/dkuntz2/java-httpserver/issues/12
-            RFC 2616#4.2: http://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2
+        /*  If the client sent over a body, it's still in the stream, and is
+            left there until the handler reads it. Only the body's own bytes
+            are read, so that the next request on a persistent connection is
+            left alone. A chunked body ends with its last chunk, and anything
+            else is as long as its "Content-Length" header says, per RFC
+            7230#3.3.3. A request with both was already turned away by the
+            RequestParser.
             */
-        for (String line = input.readLine(); line != null && !line.isEmpty(); line = input.readLine()) {
-            requestBuilder.append(line);
-            requestBuilder.append("\n");
-
-            String[] items = line.split(": ");
-
-            if (items.length == 1) {
-                throw new HttpException("No key value pair in \n\t" + line);
+        int contentLength = 0;
+        int transferEncodingHeader = head.findHeader(HttpHeader.TRANSFER_ENCODING);
+        int contentLengthHeader = head.findHeader(HttpHeader.CONTENT_LENGTH);
+        if (transferEncodingHeader != -1) {
+            if (!ChunkedParser.isChunked(head.getHeaderValue(buffer, transferEncodingHeader))) {
+                throw new HttpException("Unsupported Transfer-Encoding");
             }
 
-            String value = items[1];
-            for (int i = 2; i < items.length; i++) {
-                value += ": " + items[i];
-            }
-
-            getHeaders().put(items[0], value);
+            this.chunks = new ChunkedInputStream(input);
+            contentLength = -1;
+        } else if (contentLengthHeader != -1) {
+            contentLength = head.getHeaderInt(buffer, contentLengthHeader);
         }
 
+        this.body = new RequestBody(chunks != null ? chunks : input, contentLength);
 
-        /*  If the client sent over a POST request, there's *probably* still data
-            in the stream. This reads in only the number of chars specified in the
-            "Content-Length" header.
-            */
-        if (getRequestType().equals(POST_REQUEST_TYPE) && getHeaders().containsKey("Content-Length")) {
-            int contentLength = Integer.parseInt(getHeaders().get("Content-Length"));
-            StringBuilder b = new StringBuilder();
+        if (request != null && contentLength != 0) {
+            byte[] data = readFully(body);
+            request += new String(data, StandardCharsets.UTF_8);
+            this.body = new RequestBody(new ByteArrayInputStream(data), data.length);
+        }
 
-            for (int i = 0; i < contentLength; i++) {
-                b.append((char)input.read());
-            }
+        setHttpRequest(request);
+    }
 
-            requestBuilder.append(b.toString());
 
-            String[] data = b.toString().split("&");
-            getParams().putAll(parseInputData(data));
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8 * 1024];
+        for (int read; (read = in.read(chunk)) != -1; ) {
+            out.write(chunk, 0, read);
         }
 
-        setHttpRequest(requestBuilder.toString());
+        return out.toByteArray();
     }
 
 
+
     /**
      * Turns an array of "key=value" strings into a map. <p>
      *
@@ -263,7 +327,7 @@ public class HttpRequest implements Runnable {
      * @return a new instance of some form of HttpHandler.
      *
      * @see HttpRouter
-     * @see HttpRouter#determineHandler
+     * @see HttpRouter#route
      * @see HttpHandler
      */
     public HttpHandler determineHandler() {
@@ -271,17 +335,47 @@ public class HttpRequest implements Runnable {
             return new DeathHandler();
         }
 
-        String path = getSplitPath().isEmpty() ? "" : getSplitPath().get(0);
-        return router.route(path, this);
+        return router.route(this);
+    }
+
+    /**
+     * Figure out if the client wants to keep the connection open after this
+     * request. <p>
+     *
+     * HTTP/1.1 connections are persistent unless the client sends
+     * {@code Connection: close}. Anything older is closed unless the client
+     * sends {@code Connection: keep-alive}.
+     *
+     * @return true if the connection should be kept open.
+     */
+    public boolean isKeepAlive() {
+        boolean keepAlive = "HTTP/1.1".equalsIgnoreCase(getRequestProtocol());
+
+        String connection = getHeader(HttpHeader.CONNECTION);
+        if (connection == null) {
+            return keepAlive;
+        }
+
+        for (String token : connection.split(",")) {
+            token = token.trim();
+            if (token.equalsIgnoreCase("close")) {
+                return false;
+            } else if (token.equalsIgnoreCase("keep-alive")) {
+                keepAlive = true;
+            }
+        }
+
+        return keepAlive;
     }
 
     /**
-     * Return if the request type is the passed in type.
+     * Return if the request type is the passed in type. Methods are
+     * case-sensitive, so a {@code head} request isn't a HEAD.
      * @param requestTypeCheck The type to check.
      * @return whether the request type equals the passed in String.
      */
     public boolean isType(String requestTypeCheck) {
-        return getRequestType().equalsIgnoreCase(requestTypeCheck);
+        return requestTypeCheck.equals(getRequestType());
     }
 
     /**
@@ -315,7 +409,7 @@ public class HttpRequest implements Runnable {
 
 
         // Set the request type
-        setRequestType(splitty[0].toUpperCase());
+        setRequestType(splitty[0]);
 
         // set the path
         setFullPath(splitty[1]);
@@ -345,6 +439,7 @@ public class HttpRequest implements Runnable {
      */
     public void setFullPath(String inPath) {
         this.fullPath = inPath;
+        this.pathDepth = 0;
         setPath(inPath);
         setSplitPath(inPath);
     }
@@ -364,9 +459,50 @@ public class HttpRequest implements Runnable {
      * @return Everything in the path after the handler's path.
      */
     public String getPath() {
+        if (path == null) {
+            path = fullPath.substring(pathOffset());
+        }
         return path;
     }
 
+    /**
+     * Say how many segments at the start of the path belong to the prefix
+     * the handler's mounted at. The handler's path isn't cut out of the full
+     * path unless someone asks for it.
+     *
+     * @param pathDepth   The number of segments.
+     * @see HttpRouter#route
+     */
+    void setPathDepth(int pathDepth) {
+        this.pathDepth = pathDepth;
+        this.path = null;
+    }
+    /**
+     * Get how many segments at the start of the path belong to the prefix
+     * the handler's mounted at. The handler's own part of
+     * {@link #getSplitPath()} starts at this index.
+     *
+     * @return The number of segments, 0 for a handler that isn't mounted at
+     *         a prefix.
+     */
+    public int getPathDepth() {
+        return pathDepth;
+    }
+
+    /**
+     * Find where the handler's path starts in the full path.
+     */
+    private int pathOffset() {
+        int offset = 0;
+        for (int i = 0; i < pathDepth; i++) {
+            while (offset < fullPath.length() && fullPath.charAt(offset) == '/') {
+                offset++;
+            }
+            offset += splitPath.get(i).length();
+        }
+        return offset;
+    }
+
 
     /**
      * Given a full path, set the splitPath to the path, split by `/`. <p>
@@ -383,11 +519,18 @@ public class HttpRequest implements Runnable {
             action should be taken. It's also used to parse out GET request
             data.
 
-            The first character *should* always be a `/`, and that could cause
-            an error with splitting (as in, the first split could be an empty
-            string, which we don't want).
+            The first character *should* always be a `/`, which leaves an
+            empty first split, so empty segments are skipped. Chopping off the
+            first character instead would eat into a path sent without one.
+
+            The query string is cut off before splitting, so a `/` inside it
+            doesn't make a segment, and a path like `/orders/?x=1` doesn't
+            end with an empty one.
             */
-        for (String segment : fullPath.substring(1).split("/")) {
+        int query = fullPath.indexOf('?');
+        String path = query == -1 ? fullPath : fullPath.substring(0, query);
+
+        for (String segment : path.split("/")) {
             if (segment.isEmpty()) {
                 continue;
             }
@@ -395,22 +538,12 @@ public class HttpRequest implements Runnable {
             getSplitPath().add(segment);
         }
 
-        if (getSplitPath().isEmpty()) {
-            return;
-        }
-
         /*  Parse out any GET data in the request URL.
             This could occur on any request.
             */
-        if (getSplitPath().get(getSplitPath().size() - 1).indexOf('?') != -1) {
-            String lastItem = getSplitPath().get(getSplitPath().size() - 1);
-            // remove the ? onward from the last item in the path, because that's not
-            // part of the requested URL
-            getSplitPath().set(getSplitPath().size() - 1, lastItem.substring(0,
-                        lastItem.indexOf('?')));
-
+        if (query != -1) {
             // split apart the request query into an array of "key=value" strings.
-            String[] data = lastItem.substring(lastItem.indexOf('?') + 1).split("&");
+            String[] data = fullPath.substring(query + 1).split("&");
 
             // Set the GET data to the GET data...
             getParams().putAll(parseInputData(data));
@@ -420,7 +553,8 @@ public class HttpRequest implements Runnable {
         this.splitPath = path;
     }
     /**
-     * Gets the path relative to the handler's path split by '/'
+     * Gets the full path split by '/'. The part after the prefix the handler
+     * is mounted at starts at {@link #getPathDepth()}.
      * @return A List of Strings
      */
     public List<String> getSplitPath() {
@@ -436,46 +570,320 @@ public class HttpRequest implements Runnable {
         return connection;
     }
 
+    /**
+     * Set the stream the request will be read from. Unless it's a
+     * RequestInput shared with the rest of the connection, it's wrapped in
+     * a new one.
+     * @param inputStream The stream to read from.
+     */
+    public void setInputStream(InputStream inputStream) {
+        if (inputStream instanceof RequestInput) {
+            this.inputStream = (RequestInput) inputStream;
+        } else {
+            this.inputStream = new RequestInput(inputStream);
+        }
+    }
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public void setOutputStream(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
     public void setHeaders(Map<String, String> headers) {
         this.headers = headers;
     }
+    /**
+     * Get all of the request's headers. <p>
+     *
+     * The first time this is called, every header is turned into a String
+     * and put in the map. If you only need one or two headers, use
+     * {@link #getHeader(HttpHeader)} or {@link #getHeader(String)}, which
+     * don't build the map. <p>
+     *
+     * The map ignores the case of header names, and well-known headers are
+     * keyed by their usual capitalization, whatever the client sent.
+     *
+     * @return The request's headers.
+     */
     public Map<String, String> getHeaders() {
+        if (headers == null) {
+            headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+            if (head != null) {
+                for (int i = 0; i < head.getHeaderCount(); i++) {
+                    headers.put(head.getHeaderName(headBuffer, i),
+                            head.getHeaderValue(headBuffer, i));
+                }
+            }
+        }
+
         return headers;
     }
+    /**
+     * Get a well-known header's value. This takes constant time, no matter
+     * how many headers the request has.
+     *
+     * @param key   The header's name.
+     * @return The header's value, or null if the client didn't send it.
+     */
+    public String getHeader(HttpHeader key) {
+        if (headers == null) {
+            if (head == null) {
+                return null;
+            }
+
+            int header = head.findHeader(key);
+            return header == -1 ? null : head.getHeaderValue(headBuffer, header);
+        }
+
+        return getHeader(key.getName());
+    }
+    /**
+     * Get a header's value, ignoring the case of its name.
+     * @param key   The header's name.
+     * @return The header's value, or null if the client didn't send it.
+     */
+    public String getHeader(String key) {
+        if (headers == null) {
+            if (head == null) {
+                return null;
+            }
+
+            int header = head.findHeader(headBuffer, key);
+            return header == -1 ? null : head.getHeaderValue(headBuffer, header);
+        }
+
+        String value = headers.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(key)) {
+                return header.getValue();
+            }
+        }
+
+        return null;
+    }
 
     public void setParams(Map<String, String> data) {
         this.params = data;
     }
+    /**
+     * Get the request's parameters. <p>
+     *
+     * The first time parameters are asked for, a POST request's body is read
+     * in and parsed as form data, as long as it is form data and the handler
+     * hasn't read any of the body itself. Parameters from the path and the
+     * query string win over ones in the body.
+     *
+     * @return The request's parameters.
+     */
     public Map<String, String> getParams() {
+        parseForm();
+        mergeRoute();
         return params;
     }
     public void mergeParams(Map<String, String> data) {
         this.params.putAll(data);
     }
+    /**
+     * Get one of the request's parameters. Parameters from the path are
+     * read straight out of it, so they don't have to be copied anywhere
+     * first.
+     *
+     * @param key   The parameter's name.
+     * @return The parameter, or null if there isn't one by that name.
+     * @see #getParams()
+     */
     public String getParam(String key) {
-        return this.params.get(key);
+        String value = routeMerged ? null : getPathParam(key);
+        if (value != null) {
+            return value;
+        }
+
+        parseForm();
+        return params.get(key);
+    }
+    /**
+     * Get a parameter from the path, like {@code name} for a request that
+     * matched {@code /hello/{name}}. Unlike {@link #getParam}, the query
+     * string and body aren't looked at.
+     *
+     * @param key   The parameter's name.
+     * @return The parameter, or null if the route doesn't have one by that
+     *         name.
+     */
+    public String getPathParam(String key) {
+        if (route == null) {
+            return null;
+        }
+
+        int i = route.indexOfParam(key);
+        return i == -1 ? null : getSplitPath().get(pathDepth + i);
+    }
+
+    /**
+     * Copy the route's parameters into the maps, for someone that wants all
+     * of them at once. Parameters from the path win over ones from the query
+     * string or body, like they always have.
+     */
+    private void mergeRoute() {
+        if (routeMerged || route == null) {
+            return;
+        }
+        routeMerged = true;
+
+        for (int i = 0; i < route.getSegmentCount(); i++) {
+            if (route.getSegmentType(i) == Route.PARAM) {
+                params.put(route.getSegment(i), getSplitPath().get(pathDepth + i));
+            } else if (route.getSegmentType(i) == Route.VARARGS) {
+                varargs.addAll(getSplitPath().subList(pathDepth + i, getSplitPath().size()));
+            }
+        }
+    }
+
+    /**
+     * Read in a POST request's body as form data, if it hasn't been already.
+     */
+    private void parseForm() {
+        if (formParsed || body == null || !isType(POST_REQUEST_TYPE)) {
+            return;
+        }
+        formParsed = true;
+
+        if (body.getLength() == 0 || !body.isUntouched()) {
+            return;
+        }
+
+        String contentType = getHeader(HttpHeader.CONTENT_TYPE);
+        if (contentType != null && !contentType.regionMatches(true, 0,
+                    FORM_CONTENT_TYPE, 0, FORM_CONTENT_TYPE.length())) {
+            return;
+        }
+
+        try {
+            String data = new String(readFully(body), StandardCharsets.UTF_8);
+            if (data.isEmpty()) {
+                return;
+            }
+
+            for (Map.Entry<String, String> param : parseInputData(data.split("&")).entrySet()) {
+                params.putIfAbsent(param.getKey(), param.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Get the request's body, as a stream. Nothing is read from the client
+     * until the stream is, so a large body can be copied somewhere else
+     * without all of it being held in memory. <p>
+     *
+     * A POST body that's been read through {@link #getParams()} is already
+     * used up.
+     *
+     * @return The body, which is empty if the request doesn't have one.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+    /**
+     * Get the request's body, as a channel.
+     * @return The body, which is empty if the request doesn't have one.
+     * @see #getBody()
+     */
+    public ReadableByteChannel getBodyChannel() {
+        return body;
+    }
+    /**
+     * Get the length of the request's body.
+     * @return The number of bytes in the body, or -1 if the body was sent in
+     *         chunks, so its length isn't known ahead of time.
+     */
+    public long getBodyLength() {
+        return body == null ? 0 : body.getLength();
+    }
+    /**
+     * Get the trailers the client sent after a chunked body. They can only
+     * be had once the whole body has been read.
+     *
+     * @return The trailers, which is empty if there aren't any.
+     */
+    public Map<String, String> getTrailers() {
+        if (chunks == null) {
+            return Collections.emptyMap();
+        }
+        return chunks.getTrailers();
+    }
+
+    /**
+     * Throw away whatever the handler didn't read of the body, so the next
+     * request on the connection can be read. A body with too much left
+     * isn't worth reading just to throw away.
+     *
+     * @return true if the connection is ready for another request.
+     */
+    boolean discardBody() {
+        return body == null || body.discard(RequestBody.maxDiscard);
     }
 
     public void mergeVarargs(List<String> data) {
         this.varargs.addAll(data);
     }
     public List<String> getVarargs() {
+        mergeRoute();
         return this.varargs;
     }
 
     public void setHttpRequest(String httpRequest) {
         this.httpRequest = httpRequest;
     }
+    /**
+     * Get the full text of the request. This is null unless
+     * {@link #setCaptureRequest} was turned on before the request was parsed.
+     * @return The full text of the request.
+     */
     public String getHttpRequest() {
         return httpRequest;
     }
 
+    /**
+     * Set whether the full text of the request is kept, for
+     * {@link #getHttpRequest()}. It's off by default, because it's a copy of
+     * every request that's rarely needed.
+     * @param captureRequest  Whether to keep the full text of the request.
+     */
+    public void setCaptureRequest(boolean captureRequest) {
+        this.captureRequest = captureRequest;
+    }
+    public boolean isCaptureRequest() {
+        return captureRequest;
+    }
+
     public void setRequestType(String requestType) {
         this.requestType = requestType;
+        this.method = HttpMethod.lookup(requestType);
     }
     public String getRequestType() {
         return requestType;
     }
+    /**
+     * Get the request's method.
+     * @return The method, or null if it isn't a standard one. See
+     *         {@link #getRequestType()} for its name.
+     */
+    public HttpMethod getMethod() {
+        return method;
+    }
 
     public void setRequestProtocol(String requestProtocol) {
         this.requestProtocol = requestProtocol;
@@ -491,6 +899,19 @@ public class HttpRequest implements Runnable {
         return handler;
     }
 
+    /**
+     * Set the route that matched the request's path. Its parameters are read
+     * out of the path when they're asked for.
+     * @param route   The route.
+     */
+    public void setRoute(Route route) {
+        this.route = route;
+        this.routeMerged = false;
+    }
+    public Route getRoute() {
+        return route;
+    }
+
     public void setRouter(HttpRouter router) {
         this.router = router;
     }
@@ -501,8 +922,11 @@ public class HttpRequest implements Runnable {
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        builder.append("HttpRequest from ");
-        builder.append(getConnection().getLocalAddress().getHostAddress());
+        builder.append("HttpRequest");
+        if (getConnection() != null) {
+            builder.append(" from ");
+            builder.append(getConnection().getLocalAddress().getHostAddress());
+        }
         builder.append("\n\t");
         builder.append("Request Line: ");
         builder.append(getRequestLine());
@@ -1,15 +1,31 @@
 package httpserver;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32C;
 
 
 /**
  * An HttpResponse is used to set output values, and to write those values
- * to the client.
+ * to the client. <p>
+ *
+ * Most responses set a body, which is sent all at once by
+ * {@link #respond()}. A response that's too big to hold in memory, or that
+ * should start reaching the client before it's done being made, can be
+ * written to {@link #getOutputStream()} instead.
  */
 public class HttpResponse {
     /** Generic error message for when an exception occurs on the server */
@@ -22,23 +38,83 @@ public class HttpResponse {
     /** Generic error message for when the browser sends bad data */
     public static final String MALFORMED_INPUT_ERROR = "Malformed Input";
 
+    /** Generic error message for when the server is too busy to answer */
+    public static final String SERVICE_UNAVAILABLE_ERROR
+        = "The server is too busy right now, try again later";
+
     /** Generic status message for when everything is good */
     public static final String STATUS_GOOD = "All systems are go";
 
+    /** How much of a streamed body is held before it's sent as a chunk */
+    public static final int streamBufferSize = 8 * 1024;
+
+    /** Bodies smaller than this aren't worth compressing */
+    public static final int compressionThreshold = 1024;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    // The parts of a head that are always the same, already in bytes.
+    private static final byte[] CONTENT_TYPE = bytes("Content-Type: ");
+    private static final byte[] CONTENT_LENGTH = bytes("Content-Length: ");
+    private static final byte[] CONNECTION_KEEP_ALIVE = bytes("Connection: keep-alive\r\n");
+    private static final byte[] CONNECTION_CLOSE = bytes("Connection: close\r\n");
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = bytes("Transfer-Encoding: chunked\r\n");
+
     private static String serverInfo;
+    // The whole Server header line, made whenever the server info changes.
+    private static volatile byte[] serverHeader;
+
     private static Map<Integer, String> responses;
+    // The whole status line for each known response code, indexed by code.
+    private static final byte[][] statusLines = new byte[600][];
+
+    static {
+        setupResponses();
+        setupStatusLines();
+    }
 
     private HttpRequest request;
 
     private int code = 200; // default to "200 - OK"
     private byte[] body;
+    private ByteBuffer bodyBuffer;
     private String mimeType = "text/plain";
     private long size = -1;
+    private boolean keepAlive = false;
 
-    private Map<String, String> headers = new HashMap<>();
+    // Header names are case-insensitive, so a handler's "vary" is the same
+    // header as the server's "Vary".
+    private Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
 
     private Socket socket;
-    private DataOutputStream writer;
+
+    // The connection's own stream. DataOutputStream's writes are
+    // synchronized, and would pin a virtual thread for every blocking write.
+    private OutputStream writer;
+
+    // Set once the handler asks to stream the body.
+    private BodyStream stream;
+
+    // The head, while it's being put together and sent.
+    private ResponseHead head;
+
+    // Set when the body is (part of) a file.
+    private Path file;
+    private long filePosition;
+    private long fileLength = -1;
+
+    // Set when only parts of the body are sent.
+    private List<ByteRange> ranges;
+
+    // Validators, for answering conditional requests.
+    private String etag;
+    private long lastModified = -1;
+    private boolean autoETag = false;
+
+    private boolean compression = false;
 
 
     /**
@@ -53,7 +129,7 @@ public class HttpResponse {
         }
 
         socket = req.getConnection();
-        writer = new DataOutputStream(socket.getOutputStream());
+        writer = req.getOutputStream();
 
         request = req;
     }
@@ -112,7 +188,42 @@ public class HttpResponse {
 
 
     /**
-     * Send data back to the client.
+     * Answer a conditional request with a {@code 304 Not Modified}, if the
+     * client already has what it's asking for. <p>
+     *
+     * The client's If-None-Match is compared with the ETag, or if it didn't
+     * send one, its If-Modified-Since with the Last-Modified date. If the
+     * client's copy is current, the body is dropped and the status is set to
+     * 304. <p>
+     *
+     * {@link #respond()} does this on its own, so handlers only need to call
+     * it to skip the work of making a body that won't be sent: set the
+     * validators, and return early if this returns true. A streamed body
+     * has to be checked this way, since it's sent as it's written.
+     *
+     * @return true if the response is now a 304.
+     * @see #setETag(String)
+     * @see #setLastModified(long)
+     */
+    public boolean checkNotModified() {
+        if (getCode() == 304) {
+            return true;
+        }
+
+        if (stream != null || getCode() != 200 || !isNotModified()) {
+            return false;
+        }
+
+        setCode(304);
+        setBody(new byte[0]);
+        return true;
+    }
+
+
+    /**
+     * Send data back to the client. <p>
+     *
+     * If the body was streamed, this just finishes the stream.
      */
     public void respond() {
         try {
@@ -122,12 +233,41 @@ public class HttpResponse {
             // know something janky is going on, and stop trying to do things.
             //
             // Thankfully that can all be done by throwing an exception.
-            if (getSocket() == null) {
-                throw new HttpException("Socket is null...");
-            } else if (getSocket().isClosed()) {
+            if (getRequest().getOutputStream() == null) {
+                throw new HttpException("Output stream is null...");
+            } else if (getSocket() != null && getSocket().isClosed()) {
                 throw new HttpException("Socket is closed...");
             }
 
+            if (stream != null) {
+                stream.close();
+                return;
+            }
+
+            if (autoETag && etag == null && getCode() == 200) {
+                setAutoETag();
+            }
+            checkNotModified();
+
+            if (ranges == null && file == null) {
+                compressBody();
+            }
+
+            if (ranges != null) {
+                sendRanges();
+                return;
+            }
+
+            if (file != null) {
+                sendFile();
+                return;
+            }
+
+            if (bodyBuffer != null) {
+                sendBuffer();
+                return;
+            }
+
 
             // If the user never filled out the response's body, there isn't any
             // content. Make sure the response code matches that.
@@ -135,64 +275,501 @@ public class HttpResponse {
                 noContent();
             }
 
-            // Send the required headers down the pipe.
-            writeLine("HTTP/1.1 " + getResponseCodeMessage(getCode()));
-            writeLine("Server: " + getServerInfo());
-            writeLine("Content-Type: " + getMimeType());
-
-            writeLine("Connection: close");
-
+            // A persistent connection relies on the Content-Length to know
+            // where this response ends and the next one begins.
             if (getSize() != -1) {
                 // Someone manually set the size of the body. Go team!
-                writeLine("Content-Size: " + getSize());
+                buildHead(getSize(), false);
             } else {
                 // We don't know how large the body is. Determine that using the body...
-                writeLine("Content-Size: " + getBody().length);
+                buildHead(getBody().length, false);
             }
 
-            // Send all other miscellaneous headers down the shoots.
-            if (!getHeaders().isEmpty()) {
-                StringBuilder b = new StringBuilder();
-                for (String key : getHeaders().keySet()) {
-                    b.append(key);
-                    b.append(": ");
-                    b.append(getHeader(key));
-                    b.append("\n");
-                }
-                writeLine(b.toString());
-            }
-
-            // Blank line separating headers from the body.
-            writeLine("");
-
-            // If there isn't a body, or the client made a HEAD request, stop
-            // doing things.
-            if (getRequest().isType(HttpRequest.HEAD_REQUEST_TYPE) || getCode() == 204) {
-                return;
+            // If there isn't a body, or the client made a HEAD request, only
+            // the head is sent.
+            if (!hasBody()) {
+                send(getBody(), 0);
+            } else {
+                send(getBody(), getBody().length);
             }
-
-            // Give the client the body.
-            getWriter().write(getBody());
         } catch (HttpException | IOException e) {
             System.err.println("Something bad happened while trying to send data "
                     + "to the client");
             e.printStackTrace();
+
+            // Whatever made it to the client is probably garbage, don't let
+            // anything else be sent down this connection.
+            setKeepAlive(false);
         } finally {
+            // A persistent connection flushes the response itself, so that
+            // responses to pipelined requests can go out together.
             try {
-                getWriter().close();
+                if (!isKeepAlive()) {
+                    getWriter().close();
+                }
             } catch (NullPointerException | IOException e) {
                 e.printStackTrace();
+                setKeepAlive(false);
+            }
+        }
+    }
+
+    /**
+     * Put together the status line and headers, and the blank line after
+     * them, in the thread's {@link ResponseHead}.
+     *
+     * @param contentLength   The length of the body, or -1 if it isn't known.
+     * @param chunked         Whether the body is sent in chunks.
+     * @throws IOException
+     */
+    private void buildHead(long contentLength, boolean chunked) throws IOException {
+        head = ResponseHead.get();
+
+        head.append(getStatusLine(getCode()));
+        head.append(getServerHeader());
+        // A Date set by the handler, in any case, replaces the cached one.
+        if (getHeader("Date") == null) {
+            head.append(HttpDate.getDateHeader());
+        }
+
+        head.append(CONTENT_TYPE);
+        head.append(getMimeType());
+        head.endLine();
+
+        head.append(isKeepAlive() ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+
+        if (getCode() == 204 || getCode() == 304) {
+            // No body, and no Content-Length allowed either.
+        } else if (chunked) {
+            head.append(TRANSFER_ENCODING_CHUNKED);
+        } else if (contentLength != -1) {
+            head.append(CONTENT_LENGTH);
+            head.append(contentLength);
+            head.endLine();
+        }
+
+        // Send all other miscellaneous headers down the shoots.
+        for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+            writeHeader(header.getKey(), header.getValue());
+        }
+
+        // Blank line separating headers from the body.
+        head.endLine();
+    }
+
+    private void writeHeader(String name, String value) {
+        head.append(name);
+        head.append(": ");
+        head.append(value);
+        head.endLine();
+    }
+
+    /**
+     * Send the head, and the body after it, in as few writes as possible. <p>
+     *
+     * A connection that can do a gathering write gets the head and body
+     * handed to it separately. Otherwise a small body is copied in after the
+     * head, so they go out together, and a big one is sent on its own.
+     *
+     * @param body    The body, or null if there isn't one.
+     * @param length  How much of the body to send.
+     * @throws IOException
+     */
+    private void send(byte[] body, int length) throws IOException {
+        OutputStream out = getRequest().getOutputStream();
+
+        if (length > 0 && out instanceof ResponseOutput) {
+            ((ResponseOutput) out).writeResponse(head.getBytes(), head.getLength(),
+                    ByteBuffer.wrap(body, 0, length));
+            return;
+        }
+
+        if (head.getLength() + length <= ResponseHead.coalesceLimit) {
+            if (length > 0) {
+                head.append(body, 0, length);
             }
+            getWriter().write(head.getBytes(), 0, head.getLength());
+            return;
         }
+
+        getWriter().write(head.getBytes(), 0, head.getLength());
+        getWriter().write(body, 0, length);
     }
 
     /**
-     * Writes a string and a "\n" to the DataOutputStream.
-     * @param line The line to write
+     * Send the head, and then the ByteBuffer that's the body.
+     * @throws IOException
+     */
+    private void sendBuffer() throws IOException {
+        ByteBuffer body = bodyBuffer.duplicate();
+        buildHead(body.remaining(), false);
+
+        OutputStream out = getRequest().getOutputStream();
+        if (!hasBody() || !body.hasRemaining()) {
+            send(null, 0);
+        } else if (out instanceof ResponseOutput) {
+            ((ResponseOutput) out).writeResponse(head.getBytes(), head.getLength(), body);
+        } else {
+            getWriter().write(head.getBytes(), 0, head.getLength());
+            copyBuffer(body, getWriter());
+        }
+    }
+
+    /**
+     * Send the head, and then the file that's the body.
+     * @throws IOException  When the file can't be read.
+     */
+    private void sendFile() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = fileLength != -1 ? fileLength : channel.size() - filePosition;
+            buildHead(length, false);
+
+            if (!hasBody()) {
+                send(null, 0);
+                return;
+            }
+
+            OutputStream out = getRequest().getOutputStream();
+            if (out instanceof ResponseOutput) {
+                ((ResponseOutput) out).writeFile(head.getBytes(), head.getLength(),
+                        channel, filePosition, length);
+                return;
+            }
+
+            getWriter().write(head.getBytes(), 0, head.getLength());
+            copyFile(channel, filePosition, length, getWriter());
+        }
+    }
+
+    /**
+     * Send just the ranges of the body that were asked for, with a 206. One
+     * range is sent as the body itself; more than one are sent as the parts
+     * of a {@code multipart/byteranges} body. File bodies are still sent
+     * straight from the file, a range at a time.
+     *
+     * @throws IOException  When the file can't be read.
+     */
+    private void sendRanges() throws IOException {
+        FileChannel channel = null;
+        ByteBuffer buffer = null;
+        long offset;
+        long length;
+
+        if (file != null) {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            offset = filePosition;
+            length = fileLength != -1 ? fileLength : channel.size() - filePosition;
+        } else {
+            buffer = bodyBuffer != null ? bodyBuffer.duplicate()
+                : ByteBuffer.wrap(body == null ? new byte[0] : body);
+            offset = buffer.position();
+            length = buffer.remaining();
+        }
+
+        try {
+            setCode(206);
+
+            if (ranges.size() == 1) {
+                ByteRange range = ranges.get(0);
+                setHeader("Content-Range", range.toContentRange(length));
+                buildHead(range.getLength(), false);
+
+                if (!hasBody()) {
+                    send(null, 0);
+                } else {
+                    sendRange(channel, buffer, offset, range);
+                }
+                return;
+            }
+
+            String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            byte[][] partHeads = new byte[ranges.size()][];
+            byte[] end = bytes("\r\n--" + boundary + "--\r\n");
+
+            long total = end.length;
+            for (int i = 0; i < partHeads.length; i++) {
+                ByteRange range = ranges.get(i);
+                partHeads[i] = bytes((i == 0 ? "" : "\r\n") + "--" + boundary + "\r\n"
+                    + "Content-Type: " + getMimeType() + "\r\n"
+                    + "Content-Range: " + range.toContentRange(length) + "\r\n\r\n");
+                total += partHeads[i].length + range.getLength();
+            }
+
+            setMimeType("multipart/byteranges; boundary=" + boundary);
+            buildHead(total, false);
+
+            if (!hasBody()) {
+                send(null, 0);
+                return;
+            }
+
+            // Each part goes out with its own head in front of it, the first
+            // one after the response's head.
+            for (int i = 0; i < partHeads.length; i++) {
+                if (i > 0) {
+                    head = ResponseHead.get();
+                }
+                head.append(partHeads[i]);
+                sendRange(channel, buffer, offset, ranges.get(i));
+            }
+            getWriter().write(end);
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Send the head, and then one range of either a file or a buffer.
+     */
+    private void sendRange(FileChannel channel, ByteBuffer buffer, long offset, ByteRange range)
+            throws IOException {
+        OutputStream out = getRequest().getOutputStream();
+
+        if (channel != null) {
+            if (out instanceof ResponseOutput) {
+                ((ResponseOutput) out).writeFile(head.getBytes(), head.getLength(),
+                        channel, offset + range.getStart(), range.getLength());
+            } else {
+                getWriter().write(head.getBytes(), 0, head.getLength());
+                copyFile(channel, offset + range.getStart(), range.getLength(), getWriter());
+            }
+            return;
+        }
+
+        ByteBuffer part = buffer.duplicate();
+        part.position((int) (offset + range.getStart()));
+        part.limit((int) (offset + range.getEnd() + 1));
+
+        if (out instanceof ResponseOutput) {
+            ((ResponseOutput) out).writeResponse(head.getBytes(), head.getLength(), part);
+        } else {
+            getWriter().write(head.getBytes(), 0, head.getLength());
+            copyBuffer(part, getWriter());
+        }
+    }
+
+    /**
+     * Copy part of a file to a stream, for streams that can't be sent a file
+     * directly.
+     */
+    static void copyFile(FileChannel file, long position, long length, OutputStream out)
+            throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(streamBufferSize);
+        long end = position + length;
+        while (position < end) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), end - position));
+
+            int read = file.read(chunk, position);
+            if (read == -1) {
+                throw new IOException("File is shorter than expected");
+            }
+
+            out.write(chunk.array(), 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * Copy what's left in a buffer to a stream, for buffers that aren't
+     * backed by an array (like mapped files).
+     */
+    static void copyBuffer(ByteBuffer buffer, OutputStream out) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        byte[] chunk = new byte[Math.min(buffer.remaining(), streamBufferSize)];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(buffer.remaining(), chunk.length);
+            buffer.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Figure out if the client's copy is as new as this response, going by
+     * the conditional headers on a GET or HEAD request (RFC 7232#6).
+     */
+    private boolean isNotModified() {
+        if (!getRequest().isType(HttpRequest.GET_REQUEST_TYPE)
+                && !getRequest().isType(HttpRequest.HEAD_REQUEST_TYPE)) {
+            return false;
+        }
+
+        // If-Modified-Since is only a fallback for clients without an ETag.
+        String ifNoneMatch = getRequest().getHeader(HttpHeader.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.trim().equals("*")
+                || (etag != null && matchesETag(ifNoneMatch, etag, false));
+        }
+
+        String ifModifiedSince = getRequest().getHeader(HttpHeader.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null && lastModified != -1) {
+            long since = HttpDate.parse(ifModifiedSince);
+
+            // HTTP dates only go down to the second.
+            return since != -1 && lastModified / 1000 <= since / 1000;
+        }
+
+        return false;
+    }
+
+    /**
+     * Figure out if an ETag is in a list of them, like an If-None-Match
+     * header.
+     *
+     * @param list    The list of ETags, separated by commas.
+     * @param etag    The ETag to look for.
+     * @param strong  Whether to use the strong comparison, where weak ETags
+     *                never match, or the weak one, where W/ is ignored.
+     * @return true if it's in the list.
+     */
+    static boolean matchesETag(String list, String etag, boolean strong) {
+        boolean weak = etag.startsWith("W/");
+        if (strong && weak) {
+            return false;
+        }
+        String opaque = weak ? etag.substring(2) : etag;
+
+        int i = 0;
+        while (i < list.length()) {
+            // Find the start of the next tag, skipping any commas and spaces.
+            char c = list.charAt(i);
+            if (c == ',' || c == ' ' || c == '\t') {
+                i++;
+                continue;
+            }
+
+            boolean candidateWeak = list.startsWith("W/", i);
+            int start = candidateWeak ? i + 2 : i;
+            if (start >= list.length() || list.charAt(start) != '"') {
+                return false;
+            }
+
+            int end = list.indexOf('"', start + 1);
+            if (end == -1) {
+                return false;
+            }
+
+            if (!(strong && candidateWeak)
+                    && list.regionMatches(start, opaque, 0, opaque.length())
+                    && end + 1 - start == opaque.length()) {
+                return true;
+            }
+            i = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Compress the body, if compression is on, the body's worth compressing,
+     * and the client can take it compressed.
+     */
+    private void compressBody() {
+        if (!compression || getCode() == 204 || getCode() == 304
+                || getHeader("Content-Encoding") != null) {
+            return;
+        }
+
+        ByteBuffer contents;
+        if (bodyBuffer != null) {
+            contents = bodyBuffer.duplicate();
+        } else if (body != null) {
+            contents = ByteBuffer.wrap(body);
+        } else {
+            return;
+        }
+
+        if (contents.remaining() < compressionThreshold || !Compressor.isCompressible(getMimeType())) {
+            return;
+        }
+
+        String coding = startCompression();
+        if (coding == null) {
+            return;
+        }
+
+        Compressor compressor = new Compressor(coding, contents.remaining() / 2);
+        compressor.update(contents);
+        compressor.finish();
+
+        setBody(ByteBuffer.wrap(compressor.getOutput(), 0, compressor.getLength()));
+        size = -1;
+    }
+
+    /**
+     * Pick the content coding for a body that's worth compressing, and set
+     * the headers that go with it.
+     *
+     * @return The content coding, or null if the client can't take any.
+     */
+    private String startCompression() {
+        // Whether or not this client gets it compressed, a cache has to know
+        // the next one might not.
+        String vary = getHeader("Vary");
+        if (vary == null) {
+            setHeader("Vary", "Accept-Encoding");
+        } else if (!vary.toLowerCase().contains("accept-encoding")) {
+            setHeader("Vary", vary + ", Accept-Encoding");
+        }
+
+        String coding = Compressor.negotiate(getRequest().getHeader(HttpHeader.ACCEPT_ENCODING));
+        if (coding == null) {
+            return null;
+        }
+
+        setHeader("Content-Encoding", coding);
+
+        // The compressed bytes aren't the same bytes, so a strong ETag can't
+        // stay strong. A weak one still matches If-None-Match.
+        if (etag != null && !etag.startsWith("W/")) {
+            putETag("W/" + etag);
+        }
+        return coding;
+    }
+
+    /**
+     * Make a weak ETag from a hash of the body.
+     */
+    private void setAutoETag() {
+        ByteBuffer contents;
+        if (bodyBuffer != null) {
+            contents = bodyBuffer.duplicate();
+        } else if (body != null) {
+            contents = ByteBuffer.wrap(body);
+        } else {
+            return;
+        }
+
+        long length = contents.remaining();
+        CRC32C crc = new CRC32C();
+        crc.update(contents);
+        setWeakETag(Long.toHexString(length) + "-" + Long.toHexString(crc.getValue()));
+    }
+
+    /**
+     * Figure out if a body is actually sent. HEAD requests, and responses
+     * that can't have one, only get the headers.
+     */
+    private boolean hasBody() {
+        return !getRequest().isType(HttpRequest.HEAD_REQUEST_TYPE)
+            && getCode() != 204 && getCode() != 304;
+    }
+
+    /**
+     * Adds a string and a "\r\n" to the head being put together.
+     * @param line The line to add
      * @throws IOException
      */
     protected void writeLine(String line) throws IOException {
-        getWriter().writeBytes(line + "\n");
+        head.append(line);
+        head.endLine();
     }
 
 
@@ -213,9 +790,90 @@ public class HttpResponse {
     }
     public void setBody(String body) {
         this.body = body.getBytes();
+        this.bodyBuffer = null;
+        this.file = null;
+        this.ranges = null;
     }
     public void setBody(byte[] bytes) {
         body = bytes;
+        bodyBuffer = null;
+        file = null;
+        ranges = null;
+    }
+    /**
+     * Send the bytes between a buffer's position and limit as the body. <p>
+     *
+     * The buffer isn't copied, or changed; it can be shared between
+     * responses, like a file that's been mapped into memory once and is sent
+     * over and over.
+     *
+     * @param buffer  The body.
+     */
+    public void setBody(ByteBuffer buffer) {
+        bodyBuffer = buffer;
+        body = null;
+        file = null;
+        ranges = null;
+    }
+    /**
+     * Get the body set with {@link #setBody(ByteBuffer)}.
+     * @return The body, or null if it was set some other way.
+     */
+    public ByteBuffer getBodyBuffer() {
+        return bodyBuffer;
+    }
+
+
+    /**
+     * Send a file as the body. <p>
+     *
+     * The file isn't read into memory. Where the connection allows it, it's
+     * sent straight from the file to the client by the operating system.
+     * The file is opened when the response is sent, and the Content-Length
+     * is its size then.
+     *
+     * @param file  The file to send.
+     */
+    public void setFile(Path file) {
+        setFile(file, 0, -1);
+    }
+    /**
+     * Send part of a file as the body.
+     *
+     * @param file      The file to send.
+     * @param position  Where in the file to start.
+     * @param length    How many bytes to send, or -1 to send the rest of the
+     *                  file.
+     * @see #setFile(Path)
+     */
+    public void setFile(Path file, long position, long length) {
+        this.file = file;
+        this.filePosition = position;
+        this.fileLength = length;
+        this.body = null;
+        this.bodyBuffer = null;
+        this.ranges = null;
+    }
+    public Path getFile() {
+        return file;
+    }
+
+
+    /**
+     * Send only some ranges of the body, as a {@code 206 Partial Content}.
+     * Works with any kind of body, but not a streamed one. <p>
+     *
+     * The ranges have to fit inside of the body, which they do if they came
+     * from {@link ByteRange#parse} with the body's length. Set the body
+     * first, setting it again forgets the ranges.
+     *
+     * @param ranges  The ranges to send, or null to send the whole body.
+     */
+    public void setRanges(List<ByteRange> ranges) {
+        this.ranges = ranges == null || ranges.isEmpty() ? null : ranges;
+    }
+    public List<ByteRange> getRanges() {
+        return ranges;
     }
 
 
@@ -239,14 +897,165 @@ public class HttpResponse {
     }
 
 
+    /**
+     * Set whether the connection is kept open once the response is sent. <p>
+     *
+     * This is decided by the {@link HttpConnection} the request came in on,
+     * based on what the client asked for. A response that's kept alive isn't
+     * flushed by {@link #respond()}; its connection decides when to flush.
+     *
+     * @param keepAlive   Whether to keep the connection open.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+
+    /**
+     * Get a stream to write the body to, instead of setting it. <p>
+     *
+     * The status and headers are sent as soon as anything is written, so
+     * they have to be set first. If {@link #setSize} was called, that's the
+     * Content-Length, and exactly that many bytes have to be written.
+     * Otherwise the body is sent in chunks (or, to an HTTP/1.0 client, until
+     * the connection closes). The stream is finished by {@link #respond()},
+     * so handlers don't need to close it. <p>
+     *
+     * Writes go out to the client in pieces of
+     * {@link #streamBufferSize} bytes, or whenever the stream is flushed.
+     *
+     * @return The body's stream.
+     */
+    public OutputStream getOutputStream() {
+        if (stream == null) {
+            stream = new BodyStream();
+        }
+        return stream;
+    }
+    /**
+     * Get a channel to write the body to, instead of setting it.
+     * @return The body's channel.
+     * @see #getOutputStream()
+     */
+    public WritableByteChannel getChannel() {
+        getOutputStream();
+        return stream;
+    }
+    /**
+     * Figure out if the body is being streamed.
+     * @return true if {@link #getOutputStream()} was called.
+     */
+    public boolean isStreaming() {
+        return stream != null;
+    }
+
+
+    /**
+     * Set the body's ETag, a strong validator: it has to change whenever
+     * any byte of the body does. It's sent in the ETag header, and matched
+     * against the client's If-None-Match.
+     *
+     * @param tag   The tag, without quotes.
+     * @see #checkNotModified()
+     */
+    public void setETag(String tag) {
+        putETag(quoteETag(tag));
+    }
+    /**
+     * Set the body's ETag, a weak validator: it only has to change when the
+     * body means something different, not whenever its bytes do.
+     *
+     * @param tag   The tag, without quotes or the W/.
+     * @see #setETag(String)
+     */
+    public void setWeakETag(String tag) {
+        putETag("W/" + quoteETag(tag));
+    }
+    private void putETag(String etag) {
+        this.etag = etag;
+        setHeader("ETag", etag);
+    }
+    private static String quoteETag(String tag) {
+        if (tag.indexOf('"') != -1) {
+            throw new IllegalArgumentException("ETags can't have quotes in them: " + tag);
+        }
+        return '"' + tag + '"';
+    }
+    /**
+     * Get the ETag.
+     * @return The ETag, as it's sent in the header, or null if there isn't one.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Set when the body was last changed. It's sent in the Last-Modified
+     * header, and compared with the client's If-Modified-Since.
+     *
+     * @param lastModified  The time, in ms since the epoch.
+     * @see #checkNotModified()
+     */
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+        setHeader("Last-Modified", HttpDate.format(lastModified));
+    }
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Have a weak ETag made from a hash of the body, when the response
+     * doesn't set one itself. It's off by default, since it means hashing
+     * the whole body of every response; it still saves sending it again.
+     * Streamed and file bodies don't get one.
+     *
+     * @param autoETag  Whether to make an ETag.
+     */
+    public void setAutoETag(boolean autoETag) {
+        this.autoETag = autoETag;
+    }
+    public boolean isAutoETag() {
+        return autoETag;
+    }
+
+    /**
+     * Set whether the body is compressed, for clients that accept it. <p>
+     *
+     * This is decided by the server (see {@link HttpServer#setCompression}),
+     * but a handler can change it for its own responses. Only bodies of at
+     * least {@link #compressionThreshold} bytes, with a text-like
+     * Content-Type, and without a Content-Encoding already, are compressed.
+     * Streamed bodies are compressed as they're written. Files aren't
+     * compressed.
+     *
+     * @param compression   Whether to compress the body.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+    public boolean isCompression() {
+        return compression;
+    }
+
+
     public Map<String, String> getHeaders() {
         return headers;
     }
     public String getHeader(String key) {
         return headers.get(key);
     }
+    /**
+     * Replace the response's headers. They're copied into a map that
+     * ignores the case of their names.
+     * @param headers   The new headers.
+     */
     public void setHeaders(Map<String, String> headers) {
-        this.headers = headers;
+        this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        this.headers.putAll(headers);
     }
     public void setHeader(String key, String value) {
         this.headers.put(key, value);
@@ -261,7 +1070,7 @@ public class HttpResponse {
     private Socket getSocket() {
         return socket;
     }
-    private DataOutputStream getWriter() {
+    private OutputStream getWriter() {
         return writer;
     }
 
@@ -273,10 +1082,6 @@ public class HttpResponse {
      * @see HttpHandler#setResponseCode
      */
     public static String getResponseCodeMessage(int code) {
-        if (responses == null || responses.isEmpty()) {
-            setupResponses();
-        }
-
         if (responses.containsKey(code)) {
             return code + " " + responses.get(code);
         }
@@ -284,6 +1089,21 @@ public class HttpResponse {
         return Integer.toString(code);
     }
 
+    /**
+     * Get the entire status line for a response code, including the line
+     * ending. Known codes come from a table, so nothing is put together.
+     *
+     * @param code  An HTTP response code.
+     * @return The status line, in bytes.
+     */
+    private static byte[] getStatusLine(int code) {
+        if (code >= 0 && code < statusLines.length && statusLines[code] != null) {
+            return statusLines[code];
+        }
+
+        return bytes("HTTP/1.1 " + getResponseCodeMessage(code) + "\r\n");
+    }
+
     /**************
       STATIC STUFF
      **************/
@@ -333,6 +1153,7 @@ public class HttpResponse {
         responses.put(417, "Expectation Failed");
         responses.put(418, "I'm a teapot");
         responses.put(420, "Enhance Your Calm");
+        responses.put(431, "Request Header Fields Too Large");
 
         responses.put(500, "Internal Server Error");
         responses.put(501, "Not implemented");
@@ -342,11 +1163,27 @@ public class HttpResponse {
         responses.put(505, "HTTP Version Not Supported");
     }
 
+    /**
+     * Turns every known response code into its status line, ahead of time.
+     */
+    private static void setupStatusLines() {
+        for (int code : responses.keySet()) {
+            statusLines[code] = bytes("HTTP/1.1 " + getResponseCodeMessage(code) + "\r\n");
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
 
     /**
      * Set the info of the server
      */
     public void setupServerInfo() {
+        setServerInfo(defaultServerInfo());
+    }
+    private static String defaultServerInfo() {
         StringBuilder info = new StringBuilder();
         info.append(HttpServer.getServerName());
         info.append(" v");
@@ -354,12 +1191,274 @@ public class HttpResponse {
         info.append(" (");
         info.append(HttpServer.getServerETC());
         info.append(")");
-        setServerInfo(info.toString());
+        return info.toString();
     }
+    /**
+     * Set what's sent in the Server header. It's turned into bytes once,
+     * here, instead of in every response. Setting it to null goes back to
+     * the info set with {@link HttpServer#setServerInfo}.
+     *
+     * @param serverInfo  The server's info.
+     */
     public static void setServerInfo(String serverInfo) {
         HttpResponse.serverInfo = serverInfo;
+        HttpResponse.serverHeader = serverInfo == null ? null
+            : bytes("Server: " + serverInfo + "\r\n");
     }
     public static String getServerInfo() {
         return serverInfo;
     }
+    private static byte[] getServerHeader() {
+        byte[] header = serverHeader;
+        if (header == null) {
+            setServerInfo(defaultServerInfo());
+            header = serverHeader;
+        }
+        return header;
+    }
+
+
+    /**
+     * The stream a body is written to, when it's streamed. The head is sent
+     * on the first write, and the body's framing is taken care of as it's
+     * written.
+     */
+    private class BodyStream extends OutputStream implements WritableByteChannel {
+        private final byte[] buffer = new byte[streamBufferSize];
+        private int count = 0;
+
+        private boolean started = false;
+        private boolean closed = false;
+        private boolean chunked;
+        private long written = 0;
+
+        // A chunk's size line, filled in from the end, before the CRLF.
+        private final byte[] chunkHead = {0, 0, 0, 0, 0, 0, 0, 0, '\r', '\n'};
+
+        // Set when the body is compressed on its way out.
+        private Compressor compressor;
+
+
+        /**
+         * Send the head, now that the body's on its way.
+         */
+        private void start() throws IOException {
+            if (started) {
+                return;
+            }
+            started = true;
+
+            if (closed && count == 0 && getSize() == -1) {
+                // Nothing was ever written, so the body's length is known.
+                setSize(0);
+            }
+
+            // If the whole body's already here, it's easy to tell if it's
+            // too small to bother compressing.
+            if (compression && hasBody() && !(closed && count < compressionThreshold)
+                    && getCode() != 204 && getCode() != 304
+                    && getHeader("Content-Encoding") == null
+                    && Compressor.isCompressible(getMimeType())) {
+                String coding = startCompression();
+                if (coding != null) {
+                    compressor = new Compressor(coding);
+                    size = -1;
+                }
+            }
+
+            chunked = getSize() == -1 && hasBody()
+                && "HTTP/1.1".equalsIgnoreCase(getRequest().getRequestProtocol());
+
+            // Without a length or chunks, the only way to end the body is to
+            // close the connection.
+            if (getSize() == -1 && !chunked && hasBody()) {
+                setKeepAlive(false);
+            }
+
+            buildHead(getSize(), chunked);
+            getWriter().write(head.getBytes(), 0, head.getLength());
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+
+            if (count == buffer.length) {
+                send(buffer, 0, count);
+                count = 0;
+            }
+
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+
+            if (len > buffer.length - count) {
+                send(buffer, 0, count);
+                count = 0;
+            }
+
+            // Big writes go straight out as their own chunk.
+            if (len >= buffer.length) {
+                send(b, off, len);
+                return;
+            }
+
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+
+            int len = src.remaining();
+            if (src.hasArray()) {
+                write(src.array(), src.arrayOffset() + src.position(), len);
+                src.position(src.limit());
+            } else {
+                while (src.hasRemaining()) {
+                    int n = Math.min(src.remaining(), buffer.length - count);
+                    if (n == 0) {
+                        send(buffer, 0, count);
+                        count = 0;
+                        continue;
+                    }
+                    src.get(buffer, count, n);
+                    count += n;
+                }
+            }
+
+            return len;
+        }
+
+        /**
+         * Send some of the body to the client, compressing it first if it
+         * needs to be.
+         */
+        private void send(byte[] b, int off, int len) throws IOException {
+            start();
+            if (compressor == null) {
+                sendFrame(b, off, len);
+                return;
+            }
+
+            // Compressed output is held until there's a good sized chunk of
+            // it, or the stream is flushed.
+            if (len > 0) {
+                compressor.update(b, off, len);
+                if (compressor.getLength() >= streamBufferSize) {
+                    sendCompressed();
+                }
+            }
+        }
+
+        private void sendCompressed() throws IOException {
+            sendFrame(compressor.getOutput(), 0, compressor.getLength());
+            compressor.clear();
+        }
+
+        /**
+         * Send some of the body to the client, framed as it needs to be.
+         */
+        private void sendFrame(byte[] b, int off, int len) throws IOException {
+            if (len == 0 || !hasBody()) {
+                return;
+            }
+
+            written += len;
+            if (getSize() != -1 && written > getSize()) {
+                setKeepAlive(false);
+                throw new IOException("Body is longer than its Content-Length");
+            }
+
+            try {
+                if (chunked) {
+                    writeChunkHead(len);
+                    getWriter().write(b, off, len);
+                    getWriter().write(CRLF);
+                } else {
+                    getWriter().write(b, off, len);
+                }
+            } catch (IOException e) {
+                setKeepAlive(false);
+                throw e;
+            }
+        }
+
+        /**
+         * Send the size line that starts a chunk, in hex.
+         */
+        private void writeChunkHead(int len) throws IOException {
+            int start = chunkHead.length - 2;
+            do {
+                chunkHead[--start] = HEX_DIGITS[len & 0xf];
+                len >>>= 4;
+            } while (len != 0);
+
+            getWriter().write(chunkHead, start, chunkHead.length - start);
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Response body is closed");
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            send(buffer, 0, count);
+            count = 0;
+
+            if (compressor != null) {
+                compressor.flush();
+                sendCompressed();
+            }
+            getWriter().flush();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        /**
+         * Send whatever's left of the body, and end it. The connection is
+         * left open.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                send(buffer, 0, count);
+                count = 0;
+
+                if (compressor != null) {
+                    compressor.finish();
+                    sendCompressed();
+                }
+            } finally {
+                if (compressor != null) {
+                    compressor.release();
+                }
+            }
+
+            if (chunked) {
+                getWriter().write(LAST_CHUNK);
+            } else if (getSize() != -1 && written < getSize() && hasBody()) {
+                // The client is still waiting on the rest of the body, the
+                // only way to tell it there isn't any more is to hang up.
+                setKeepAlive(false);
+            }
+        }
+    }
 }
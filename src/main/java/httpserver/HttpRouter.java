@@ -1,16 +1,30 @@
 package httpserver;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * An HttpRouter is used to route incoming requests to specific handlers.
+ * An HttpRouter is used to route incoming requests to specific handlers. <p>
+ *
+ * Handlers are mounted at path prefixes, which can be any number of segments
+ * long, like {@code static} or {@code api/v2/orders}. A request goes to the
+ * handler with the longest prefix that matches the start of its path, so
+ * {@code /api/v2/orders/12} would pick {@code api/v2/orders} over
+ * {@code api}. The prefixes are kept in a tree by segment, so finding the
+ * handler takes as many steps as the prefix is long. <p>
+ *
+ * The handler only sees the rest of the path: its routes, and
+ * {@link HttpRequest#getPath()}, start after the prefix. So a handler
+ * mounted at {@code api/v2/orders} would have a route like {@code /{id}}.
  *
  * @see HttpHandler
  * @see HttpRequest
  */
 public class HttpRouter {
     private Map<String, HttpHandler> handlers;
+    private final Node root = new Node();
     private HttpHandler errorHandler;
     private HttpHandler defaultHandler;
 
@@ -22,21 +36,44 @@ public class HttpRouter {
 
 
     /**
-     * Route determines which {@link HttpHandler} to use based on the first path
-     * segment (between the first and second `/`). <p>
+     * Route determines which {@link HttpHandler} to use based on the
+     * longest prefix it's mounted at that matches the request's path. The
+     * request is told how much of its path the prefix took up. <p>
      *
-     * If no {@link HttpHandler} can be found for the specified path segment, an
-     * error handler is used. You can specify a specific error handler using the
-     * {@link #setErrorHandler(HttpHandler)} method. The default error handler
-     * will send a `501` status code (Not Implemented) to the client.
+     * If no {@link HttpHandler} can be found for the path, the default
+     * handler is used, and then an error handler. You can specify a specific
+     * error handler using the {@link #setErrorHandler(HttpHandler)} method.
+     * The default error handler will send a `501` status code (Not
+     * Implemented) to the client.
+     *
+     * @param request   The request.
+     * @return The handler to use.
      *
      * @see HttpHandler
+     * @see HttpRequest#getPathDepth()
      */
-    public HttpHandler route(String pathSegment, HttpRequest request) {
+    public HttpHandler route(HttpRequest request) {
+        List<String> path = request.getSplitPath();
+
+        HttpHandler handler = root.handler;
+        int depth = 0;
 
-        if (getHandlers().containsKey(pathSegment)) {
-            request.setPath(request.getPath().substring(pathSegment.length() + 1));
-            return getHandlers().get(pathSegment);
+        Node node = root;
+        for (int i = 0; i < path.size(); i++) {
+            node = node.children.get(path.get(i));
+            if (node == null) {
+                break;
+            }
+
+            if (node.handler != null) {
+                handler = node.handler;
+                depth = i + 1;
+            }
+        }
+
+        if (handler != null) {
+            request.setPathDepth(depth);
+            return handler;
         } else if (defaultHandler != null) {
             return defaultHandler;
         }
@@ -46,23 +83,49 @@ public class HttpRouter {
 
 
     /**
-     * Get the map used to route paths to specific handlers
-     * @return The router's map of path segments and handlers.
+     * Get the map used to route paths to specific handlers. It can't be
+     * changed; use {@link #addHandler} instead.
+     * @return The router's map of path prefixes and handlers.
      */
     public Map<String, HttpHandler> getHandlers() {
-        return handlers;
+        return Collections.unmodifiableMap(handlers);
     }
 
 
     /**
-     * Add a new route.
+     * Add a new route. <p>
+     *
+     * The handler's routes are relative to the prefix. This is a change from
+     * older versions, where a handler's routes had to start with the segment
+     * it was mounted at: a handler mounted at {@code users} used to have
+     * routes like {@code /users/{id}}, and now needs {@code /{id}} instead.
+     * Old routes that repeat the first segment have to drop it, or they
+     * won't match anything.
      *
-     * @param pathSegment     The first path segment (
-     *                        between the first and second {@code /}) to match
-     * @param handler         An HttpHandler to be routed to.
+     * @param prefix      The path prefix to match, like {@code static} or
+     *                    {@code /api/v2/orders}. An empty prefix matches
+     *                    every path.
+     * @param handler     An HttpHandler to be routed to.
      */
-    public void addHandler(String pathSegment, HttpHandler handler) {
-        getHandlers().put(pathSegment, handler);
+    public void addHandler(String prefix, HttpHandler handler) {
+        prefix = Route.cleanPath(prefix);
+
+        Node node = root;
+        for (String segment : prefix.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+
+            Node child = node.children.get(segment);
+            if (child == null) {
+                child = new Node();
+                node.children.put(segment, child);
+            }
+            node = child;
+        }
+
+        node.handler = handler;
+        handlers.put(prefix, handler);
     }
 
 
@@ -79,4 +142,10 @@ public class HttpRouter {
     public HttpHandler getDefaultHandler() {
         return defaultHandler;
     }
+
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private HttpHandler handler;
+    }
 }
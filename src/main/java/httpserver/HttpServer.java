@@ -5,6 +5,8 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Executor;
 
 /**
  * HttpServer is a relatively simple class with one job, and one job only:
@@ -18,6 +20,15 @@ import java.net.SocketException;
 public class HttpServer extends HttpHandler {
     public static final int defaultPort = 8000;
 
+    /** How long an idle persistent connection is kept open, in ms */
+    public static final int defaultIdleTimeout = 15 * 1000;
+
+    /** How many requests a single persistent connection can make */
+    public static final int defaultMaxRequestsPerConnection = 1000;
+
+    /** How many pipelined requests are handled before responses are flushed */
+    public static final int defaultPipelineDepth = 16;
+
     /** The server's name */
     private static String serverName = "Simple Java Server";
 
@@ -31,6 +42,18 @@ public class HttpServer extends HttpHandler {
     private ServerSocket socket = null;
     private HttpRouter router;
 
+    /** Runs accepted connections. When null, each one gets its own thread. */
+    private Executor executor;
+
+    /** The number of event loops to use, or 0 to use a blocking ServerSocket */
+    private int eventLoops = 0;
+
+    private int idleTimeout = defaultIdleTimeout;
+    private int maxRequestsPerConnection = defaultMaxRequestsPerConnection;
+    private int pipelineDepth = defaultPipelineDepth;
+    private boolean captureRequests = false;
+    private boolean compression = false;
+
 
     /**
      * Create an HttpServer with default values.
@@ -77,10 +100,25 @@ public class HttpServer extends HttpHandler {
      *
      * Unless you specify the port with {@link HttpServer#setSocket()},
      * the server will run on http://127.0.0.1:{@value #defaultPort}.
+     *
+     * If {@link #useEventLoops} was called, connections are handled by a
+     * non-blocking {@link SelectorServer} instead of a blocking ServerSocket.
      */
     public void run() {
+        if (getEventLoops() > 0) {
+            try {
+                new SelectorServer(this, getEventLoops()).run();
+            } catch (IOException e) {
+                System.err.println("Couldn't start the event loops.");
+                e.printStackTrace();
+            }
+            return;
+        }
+
         try {
-            socket = new ServerSocket();
+            // A channel's socket, in blocking mode, so that accepted sockets
+            // have channels too, and files can be sent with sendfile.
+            socket = ServerSocketChannel.open().socket();
 
             System.out.println("Starting HttpServer at http://127.0.0.1:" + getPort());
 
@@ -91,9 +129,7 @@ public class HttpServer extends HttpHandler {
                 Socket connection = null;
                 try {
                     connection = socket.accept();
-                    HttpRequest request = new HttpRequest(getRouter(), connection);
-                    Thread t = new Thread(request);
-                    t.start();
+                    dispatch(new SocketConnection(this, connection));
                 } catch (SocketException e) {
                     /*  This typically occurs when the client breaks the connection,
                         and isn't an issue on the server side, which means we shouldn't
@@ -106,9 +142,6 @@ public class HttpServer extends HttpHandler {
                     */
                     System.err.println("IOException. Probably an HttpRequest issue.");
                     e.printStackTrace();
-                } catch (HttpException e) {
-                    System.err.println("HttpException.");
-                    e.printStackTrace();
                 } catch (Exception e) {
                     /*  Some kind of unexpected exception occurred, something bad might
                         have happened.
@@ -142,6 +175,232 @@ public class HttpServer extends HttpHandler {
         }
     }
 
+    /**
+     * Hand an accepted connection off to be processed. <p>
+     *
+     * If an {@link Executor} has been set, the connection is run by it,
+     * otherwise a new thread is started for the connection.
+     *
+     * @param connection  The connection to process.
+     */
+    protected void dispatch(Runnable connection) {
+        if (getExecutor() == null) {
+            new Thread(connection).start();
+            return;
+        }
+
+        getExecutor().execute(connection);
+    }
+
+    /**
+     * Set the {@link Executor} used to process accepted connections. <p>
+     *
+     * Passing in {@code null} goes back to starting a new thread for every
+     * connection.
+     *
+     * @param executor  The Executor that will run each connection.
+     *
+     * @see HttpServer#setWorkerPool
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Process connections with a bounded {@link WorkerPool}, instead of a new
+     * thread per connection. <p>
+     *
+     * Once all {@code maxThreads} threads are busy and {@code queueCapacity}
+     * connections are waiting, any further connections are answered with a
+     * {@code 503 Service Unavailable}.
+     *
+     * @param coreThreads     The number of threads kept around, even when idle.
+     * @param maxThreads      The most threads that will run at once.
+     * @param queueCapacity   How many connections can wait for a thread.
+     *
+     * @see WorkerPool
+     */
+    public void setWorkerPool(int coreThreads, int maxThreads, int queueCapacity) {
+        setExecutor(new WorkerPool(coreThreads, maxThreads, queueCapacity));
+    }
+    /**
+     * Get the server's WorkerPool, if it's using one.
+     * @return The WorkerPool, or null if the server isn't using one.
+     */
+    public WorkerPool getWorkerPool() {
+        if (getExecutor() instanceof WorkerPool) {
+            return (WorkerPool) getExecutor();
+        }
+
+        return null;
+    }
+
+    /**
+     * Process every connection on its own virtual thread. <p>
+     *
+     * Handlers and Routes don't need to change; blocking inside of one only
+     * blocks its virtual thread. Requires JDK 21 or newer, see
+     * {@link #supportsVirtualThreads()}.
+     *
+     * @throws UnsupportedOperationException  When the JDK doesn't have
+     *                                        virtual threads.
+     */
+    public void useVirtualThreads() {
+        useVirtualThreads(false);
+    }
+
+    /**
+     * Process every connection on its own virtual thread, optionally
+     * reporting pinning. <p>
+     *
+     * With {@code tracePinning} on, a stack trace is printed whenever a
+     * request thread blocks while pinned to its carrier thread, usually from
+     * inside a {@code synchronized} block. Those are the spots to rewrite
+     * using a {@link java.util.concurrent.locks.ReentrantLock}.
+     *
+     * @param tracePinning  Print a stack trace when a virtual thread pins.
+     * @throws UnsupportedOperationException  When the JDK doesn't have
+     *                                        virtual threads.
+     */
+    public void useVirtualThreads(boolean tracePinning) {
+        if (tracePinning) {
+            VirtualThreads.tracePinning(true);
+        }
+
+        setExecutor(VirtualThreads.newExecutor());
+    }
+
+    /**
+     * Figure out if virtual threads can be used on the running JDK.
+     * @return true when {@link #useVirtualThreads()} will work.
+     */
+    public static boolean supportsVirtualThreads() {
+        return VirtualThreads.isSupported();
+    }
+
+    /**
+     * Serve connections with one non-blocking event loop per core, instead of
+     * a blocking ServerSocket. <p>
+     *
+     * See {@link #useEventLoops(int)}.
+     */
+    public void useEventLoops() {
+        useEventLoops(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Serve connections with non-blocking event loops, instead of a blocking
+     * ServerSocket. <p>
+     *
+     * Each event loop watches many connections at once, and only hands a
+     * request off to be handled once all of it has arrived. Handling happens
+     * on the server's {@link Executor} (see {@link #setExecutor}), or, if
+     * there isn't one, a {@link WorkerPool} sized to the machine.
+     *
+     * @param loops The number of event loop threads, or 0 to go back to a
+     *              blocking ServerSocket.
+     */
+    public void useEventLoops(int loops) {
+        if (loops < 0) {
+            throw new RuntimeException("The number of event loops can't be negative.");
+        }
+
+        this.eventLoops = loops;
+    }
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Set how long a persistent connection can sit idle, waiting for its
+     * next request, before it's closed. This is also how long the server
+     * waits on a client that stops sending in the middle of a request.
+     *
+     * @param idleTimeout   The timeout in milliseconds, or 0 to wait forever.
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        if (idleTimeout < 0) {
+            throw new RuntimeException("The idle timeout can't be negative.");
+        }
+
+        this.idleTimeout = idleTimeout;
+    }
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Set how many requests a client can make over a single persistent
+     * connection. Once it's made that many, the connection is closed after
+     * the last response. Setting this to 1 turns off persistent connections.
+     *
+     * @param maxRequests   The number of requests per connection.
+     */
+    public void setMaxRequestsPerConnection(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new RuntimeException("Connections must allow at least one request.");
+        }
+
+        this.maxRequestsPerConnection = maxRequests;
+    }
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    /**
+     * Set how far a client can pipeline requests. <p>
+     *
+     * Pipelined requests are always handled, and responded to, in the order
+     * they were sent. Responses are held back while more pipelined requests
+     * are waiting, and flushed to the client at least once every
+     * {@code depth} requests. With event loops, this is also the most
+     * requests read ahead of the one currently being handled. Setting this
+     * to 1 flushes after every response.
+     *
+     * @param depth   The pipeline depth.
+     */
+    public void setPipelineDepth(int depth) {
+        if (depth < 1) {
+            throw new RuntimeException("The pipeline depth must be at least 1.");
+        }
+
+        this.pipelineDepth = depth;
+    }
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * Set whether every request keeps a copy of its full text, for
+     * {@link HttpRequest#getHttpRequest()}. Off by default.
+     *
+     * @param captureRequests   Whether to keep the text of each request.
+     */
+    public void setCaptureRequests(boolean captureRequests) {
+        this.captureRequests = captureRequests;
+    }
+    public boolean isCaptureRequests() {
+        return captureRequests;
+    }
+
+    /**
+     * Set whether responses are compressed (with gzip or deflate) for
+     * clients that accept it. Off by default. Small bodies, and types that
+     * are already compressed, like images, are sent as they are.
+     *
+     * @param compression   Whether to compress responses.
+     * @see HttpResponse#setCompression
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+    public boolean isCompression() {
+        return compression;
+    }
+
     /**
      * Set the {@link HttpRouter} to determine the what
      * {@link HttpHandler} will be used.
@@ -169,6 +428,9 @@ public class HttpServer extends HttpHandler {
         serverName = name;
         serverVersion = version;
         serverETC = etc;
+
+        // Responses will pick up the new info the next time they need it.
+        HttpResponse.setServerInfo(null);
     }
 
     /**
@@ -0,0 +1,232 @@
+package httpserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A RequestBody is the body of a single request, read straight off of the
+ * connection as the handler asks for it. <p>
+ *
+ * Only the body's own bytes are ever read, so whatever comes after it (like
+ * the next request on a persistent connection) is left alone. Closing a
+ * RequestBody doesn't close the connection, it only stops the handler from
+ * reading any more. <p>
+ *
+ * The body's length is either given up front by a Content-Length header,
+ * or isn't known until it's been read, like a chunked body. If a handler
+ * doesn't read the whole body, the rest is thrown away after the handler is
+ * done, so the next request can be read.
+ *
+ * @see HttpRequest#getBody()
+ * @see HttpRequest#getBodyChannel()
+ */
+class RequestBody extends InputStream implements ReadableByteChannel {
+    /** The most unread body that will be skipped to keep a connection open */
+    public static final long maxDiscard = 256 * 1024;
+
+    private final InputStream in;
+    private final long length;
+    private long remaining;
+    private long read = 0;
+    private boolean open = true;
+
+    // Used to read into ByteBuffers that aren't backed by an array.
+    private byte[] transfer;
+
+
+    /**
+     * Create a RequestBody.
+     *
+     * @param in      The stream the body is in, starting at its first byte.
+     * @param length  The length of the body, in bytes, or -1 if the body
+     *                ends when {@code in} does (like a chunked body).
+     */
+    public RequestBody(InputStream in, long length) {
+        this.in = in;
+        this.length = length;
+        this.remaining = length == -1 ? Long.MAX_VALUE : length;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (remaining == 0) {
+            return -1;
+        }
+
+        int b = in.read();
+        if (b == -1) {
+            return end();
+        }
+
+        remaining--;
+        read++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        return readBody(b, off, len);
+    }
+
+    private int readBody(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (remaining == 0) {
+            return -1;
+        }
+
+        int count = in.read(b, off, (int) Math.min(len, remaining));
+        if (count == -1) {
+            return end();
+        }
+
+        remaining -= count;
+        read += count;
+        return count;
+    }
+
+    /**
+     * The stream underneath has ended, which is only all right if the body
+     * was supposed to end with it.
+     */
+    private int end() throws EOFException {
+        if (length != -1) {
+            throw new EOFException("Body is shorter than its Content-Length");
+        }
+
+        remaining = 0;
+        return -1;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+
+        if (dst.hasArray()) {
+            int read = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+
+        if (transfer == null) {
+            transfer = new byte[8 * 1024];
+        }
+
+        int read = read(transfer, 0, Math.min(transfer.length, dst.remaining()));
+        if (read > 0) {
+            dst.put(transfer, 0, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] scratch = null;
+
+        while (skipped < n && remaining > 0) {
+            long step = in.skip(Math.min(n - skipped, remaining));
+            if (step <= 0) {
+                // Some streams won't skip, so read instead.
+                if (scratch == null) {
+                    scratch = new byte[8 * 1024];
+                }
+                step = readBody(scratch, 0, (int) Math.min(scratch.length, n - skipped));
+                if (step == -1) {
+                    break;
+                }
+            } else {
+                remaining -= step;
+                read += step;
+            }
+            skipped += step;
+        }
+
+        return skipped;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new IOException("Request body is closed");
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(remaining, in.available());
+    }
+
+
+    /**
+     * Skip whatever's left of the body, as long as there isn't too much of
+     * it.
+     *
+     * @param limit   The most bytes that will be skipped.
+     * @return true if the whole body has now been read, so the connection can
+     *         be used for another request.
+     */
+    public boolean discard(long limit) {
+        if (length != -1 && remaining > limit) {
+            return false;
+        }
+
+        try {
+            skip(Math.min(remaining, limit));
+
+            // A body of unknown length has to be read past its last byte to
+            // find out it's over.
+            if (remaining > 0 && length == -1) {
+                readBody(new byte[1], 0, 1);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        return remaining == 0;
+    }
+
+
+    /**
+     * Get the length of the body.
+     * @return The number of bytes in the body, or -1 if it isn't known
+     *         until the body's been read.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Figure out if any of the body has been read yet.
+     * @return true if nothing's been read.
+     */
+    public boolean isUntouched() {
+        return read == 0 && remaining > 0;
+    }
+
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Stop reading the body. The connection is left open.
+     */
+    @Override
+    public void close() {
+        open = false;
+    }
+}
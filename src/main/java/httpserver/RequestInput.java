@@ -0,0 +1,244 @@
+package httpserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+
+/**
+ * A RequestInput is a buffered InputStream that the {@link RequestParser}
+ * can see into. <p>
+ *
+ * A connection reads every one of its requests through the same
+ * RequestInput, which means the same buffer. Request heads are parsed right
+ * where they sit in the buffer, and whatever's left after a request (its
+ * body, or the next pipelined request) stays in the buffer, ready to be
+ * read. <p>
+ *
+ * The head of the current request is left alone in the buffer until the
+ * next call to {@link #readHead()}, so offsets from the parser stay good
+ * while the body is being read. After that, the buffer's contents may be
+ * moved around.
+ */
+class RequestInput extends InputStream {
+    /** The size of a new buffer */
+    public static final int defaultBufferSize = 8 * 1024;
+
+    private final InputStream in;
+    private final RequestParser parser;
+    // Requests whose heads were parsed before they were handed over, in
+    // order, or null if heads are parsed here.
+    private Queue<RequestParser> parsed;
+
+    private byte[] buffer;
+    private int position = 0;
+    private int count = 0;
+    // The bytes before this are the current request's head, and are kept.
+    private int kept = 0;
+
+
+    /**
+     * Create a RequestInput that reads from a stream.
+     * @param in  The stream requests are read from.
+     */
+    public RequestInput(InputStream in) {
+        this.in = in;
+        this.parser = new RequestParser();
+        this.buffer = new byte[defaultBufferSize];
+    }
+
+    /**
+     * Create a RequestInput for requests that have already been read in
+     * somewhere else. See {@link #setRequests}.
+     */
+    public RequestInput() {
+        this.in = null;
+        this.parser = null;
+        this.buffer = new byte[0];
+    }
+
+
+    /**
+     * Read requests that are already sitting in a buffer, and have had
+     * their heads parsed, right where they are. Nothing is copied, so the
+     * buffer can't be changed until they've all been read.
+     *
+     * @param buffer    The buffer the requests are in.
+     * @param end       Where the last request ends.
+     * @param parsed    The parser of each request, in order. Each one is
+     *                  taken out of the queue when its request is read.
+     */
+    public void setRequests(byte[] buffer, int end, Queue<RequestParser> parsed) {
+        this.buffer = buffer;
+        this.position = 0;
+        this.count = end;
+        this.kept = 0;
+        this.parsed = parsed;
+    }
+
+
+    /**
+     * Parse the next request's head, reading more from the stream as needed.
+     * The stream is left at the start of the request's body.
+     *
+     * @return The parser, holding the request head's offsets in
+     *         {@link #getBuffer()}.
+     * @throws EOFException   When the stream ends before a full head is read.
+     * @throws HttpException  When the head is malformed.
+     */
+    public RequestParser readHead() throws IOException, HttpException {
+        if (parsed != null) {
+            RequestParser next = parsed.poll();
+            if (next == null) {
+                throw new EOFException("No more requests");
+            }
+
+            position = next.getHeadEnd();
+            kept = position;
+            return next;
+        }
+
+        kept = 0;
+        compact();
+        parser.reset(0);
+
+        while (!parser.parse(buffer, count)) {
+            if (fill() == -1) {
+                throw new EOFException("Connection closed in the middle of a request");
+            }
+        }
+
+        position = parser.getHeadEnd();
+        kept = position;
+        return parser;
+    }
+
+
+    /**
+     * Wait until there's something to read, or the stream ends.
+     *
+     * @return false if the stream ended.
+     * @throws IOException  When the stream can't be read from.
+     */
+    public boolean awaitData() throws IOException {
+        if (position < count) {
+            return true;
+        }
+
+        return fill() != -1;
+    }
+
+
+    /**
+     * Read as much as the stream will give, without blocking more than
+     * once. The buffer is grown if it's full.
+     *
+     * @return The number of bytes read, or -1 at the end of the stream.
+     */
+    private int fill() throws IOException {
+        if (in == null) {
+            return -1;
+        }
+
+        if (position == count) {
+            position = kept;
+            count = kept;
+        }
+
+        if (count == buffer.length) {
+            if (position > kept) {
+                compact();
+            } else {
+                byte[] bigger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, bigger, 0, count);
+                buffer = bigger;
+            }
+        }
+
+        int read = in.read(buffer, count, buffer.length - count);
+        if (read > 0) {
+            count += read;
+        }
+
+        return read;
+    }
+
+    /**
+     * Move the unread bytes to the front of the buffer, right after anything
+     * being kept.
+     */
+    private void compact() {
+        if (position == kept) {
+            return;
+        }
+
+        System.arraycopy(buffer, position, buffer, kept, count - position);
+        count -= position - kept;
+        position = kept;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        if (position == count && fill() <= 0) {
+            return -1;
+        }
+
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (position < count) {
+            int n = Math.min(len, count - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        if (in == null) {
+            return -1;
+        }
+
+        // Big reads skip the buffer entirely.
+        if (len >= buffer.length) {
+            return in.read(b, off, len);
+        }
+
+        if (fill() <= 0) {
+            return -1;
+        }
+
+        return read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        int buffered = count - position;
+        if (in == null) {
+            return buffered;
+        }
+
+        return buffered + in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Get the buffer the last head was parsed in.
+     * @return The buffer.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,538 @@
+package httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A RequestParser finds the pieces of an HTTP request's head (the request
+ * line and the headers) directly in the bytes the request came in as. <p>
+ *
+ * Parsing doesn't create any Strings. Instead, the parser remembers where
+ * each piece starts and ends in the buffer, and the pieces are only turned
+ * into Strings when someone asks for them. <p>
+ *
+ * Parsing is incremental: {@link #parse} can be called each time more of the
+ * request arrives, and picks up exactly where it left off. The buffer can be
+ * swapped for a bigger copy between calls, as long as the bytes already
+ * parsed keep the same offsets. <p>
+ *
+ * Lines may end in either "\r\n" or a bare "\n", and any blank lines before
+ * the request line are skipped, per RFC 2616#4.1. Header values have the
+ * whitespace around them trimmed, and values continued onto the next line
+ * (RFC 2616#4.2) are joined back together with a single space. <p>
+ *
+ * A head that says how long its body is in two different ways, with both a
+ * Transfer-Encoding and a Content-Length, is rejected, and so is one with
+ * more than one Content-Length, unless they're all the same.
+ *
+ * @see HttpRequest
+ */
+class RequestParser {
+    /** The largest request head (request line and headers) that's accepted */
+    public static final int maxHeadSize = 64 * 1024;
+
+    /** The most headers a single request can have */
+    public static final int maxHeaders = 128;
+
+    private static final int REQUEST_START = 0;
+    private static final int METHOD = 1;
+    private static final int TARGET = 2;
+    private static final int PROTOCOL = 3;
+    private static final int REQUEST_LINE_END = 4;
+    private static final int LINE_START = 5;
+    private static final int NAME = 6;
+    private static final int VALUE_START = 7;
+    private static final int VALUE = 8;
+    private static final int HEADER_LINE_END = 9;
+    private static final int HEAD_END = 10;
+    private static final int COMPLETE = 11;
+
+    private int state = REQUEST_START;
+    private int position = 0;
+    // Where parsing began, before any blank lines, and where the request
+    // line starts.
+    private int begin = 0;
+    private int start = 0;
+
+    private int methodStart, methodEnd;
+    private int targetStart, targetEnd;
+    private int protocolStart, protocolEnd;
+
+    // Each header takes four slots: name start, name end, value start, and
+    // value end.
+    private int[] headers = new int[16 * 4];
+    private int headerCount = 0;
+    // The last non-whitespace byte of the current value, plus one.
+    private int valueEnd;
+    // Whether any header value was continued onto another line.
+    private boolean folded = false;
+    // Whether there's more than one Content-Length.
+    private boolean repeatedLength = false;
+
+    // The well-known name of each header, or null.
+    private HttpHeader[] names = new HttpHeader[16];
+    // The index of the last header with each well-known name, or -1.
+    private final int[] known = new int[HttpHeader.values().length];
+
+    private int headEnd = -1;
+
+
+    public RequestParser() {
+        Arrays.fill(known, -1);
+    }
+
+
+    /**
+     * Get the parser ready for another request, starting at {@code start} in
+     * the buffer.
+     *
+     * @param start   Where the next request starts.
+     */
+    public void reset(int start) {
+        this.state = REQUEST_START;
+        this.position = start;
+        this.begin = start;
+        this.start = start;
+        this.headerCount = 0;
+        this.folded = false;
+        this.repeatedLength = false;
+        this.headEnd = -1;
+        Arrays.fill(known, -1);
+    }
+
+
+    /**
+     * Parse as much of the request head as has arrived.
+     *
+     * @param buffer  The bytes the request is in.
+     * @param limit   How far into the buffer there are bytes to read.
+     * @return true once the entire head has been parsed.
+     * @throws HttpException  When the head doesn't follow the HTTP spec, or
+     *                        is too large. Blank lines before the request
+     *                        line count towards its size, so they can't go
+     *                        on forever.
+     */
+    @SuppressWarnings("fallthrough")
+    public boolean parse(byte[] buffer, int limit) throws HttpException {
+        while (position < limit && state != COMPLETE) {
+            byte b = buffer[position];
+
+            switch (state) {
+                case REQUEST_START:
+                    if (b == '\r' || b == '\n') {
+                        start = position + 1;
+                        break;
+                    }
+                    methodStart = position;
+                    state = METHOD;
+                    // fall through, the byte is part of the method
+                case METHOD:
+                    if (b == ' ') {
+                        methodEnd = position;
+                        targetStart = position + 1;
+                        state = TARGET;
+                    } else if (!isTokenByte(b)) {
+                        throw new HttpException("Malformed request method");
+                    }
+                    break;
+
+                case TARGET:
+                    if (b == ' ') {
+                        targetEnd = position;
+                        protocolStart = position + 1;
+                        state = PROTOCOL;
+                    } else if (b == '\r' || b == '\n') {
+                        throw new HttpException("Request line has a number of spaces other than 3.");
+                    }
+                    break;
+
+                case PROTOCOL:
+                    if (b == '\r' || b == '\n') {
+                        protocolEnd = position;
+                        if (methodEnd == methodStart || targetEnd == targetStart
+                                || protocolEnd == protocolStart) {
+                            throw new HttpException("Request line has a number of spaces other than 3.");
+                        }
+                        state = b == '\r' ? REQUEST_LINE_END : LINE_START;
+                    } else if (b == ' ') {
+                        throw new HttpException("Request line has a number of spaces other than 3.");
+                    }
+                    break;
+
+                case REQUEST_LINE_END:
+                case HEADER_LINE_END:
+                    if (b != '\n') {
+                        throw new HttpException("Expected a line feed after a carriage return");
+                    }
+                    state = LINE_START;
+                    break;
+
+                case LINE_START:
+                    if (b == '\r') {
+                        state = HEAD_END;
+                    } else if (b == '\n') {
+                        complete(buffer, position + 1);
+                    } else if ((b == ' ' || b == '\t') && headerCount > 0) {
+                        // The last header's value continues on this line.
+                        folded = true;
+                        state = VALUE;
+                    } else if (isTokenByte(b)) {
+                        startHeader(position);
+                        state = NAME;
+                    } else {
+                        throw new HttpException("Malformed header name");
+                    }
+                    break;
+
+                case NAME:
+                    if (b == ':') {
+                        endName(buffer, position);
+                        state = VALUE_START;
+                    } else if (!isTokenByte(b)) {
+                        throw new HttpException("No key value pair in header");
+                    }
+                    break;
+
+                case VALUE_START:
+                    if (b == ' ' || b == '\t') {
+                        break;
+                    }
+                    headers[(headerCount - 1) * 4 + 2] = position;
+                    valueEnd = position;
+                    state = VALUE;
+                    // fall through, the byte is part of the value
+                case VALUE:
+                    if (b == '\r' || b == '\n') {
+                        headers[(headerCount - 1) * 4 + 3] = valueEnd;
+                        state = b == '\r' ? HEADER_LINE_END : LINE_START;
+                    } else if (b != ' ' && b != '\t') {
+                        valueEnd = position + 1;
+                    }
+                    break;
+
+                case HEAD_END:
+                    if (b != '\n') {
+                        throw new HttpException("Expected a line feed after a carriage return");
+                    }
+                    complete(buffer, position + 1);
+                    break;
+            }
+
+            position++;
+
+            if (state != COMPLETE && position - begin > maxHeadSize) {
+                throw new HttpException(431, "Request head is larger than " + maxHeadSize + " bytes");
+            }
+        }
+
+        return state == COMPLETE;
+    }
+
+    private void complete(byte[] buffer, int end) throws HttpException {
+        // A request with both could be framed one way here and another way
+        // by a proxy in front of the server, which lets a second request be
+        // smuggled inside the first one's body. RFC 7230#3.3.3 allows
+        // rejecting it.
+        if (known[HttpHeader.TRANSFER_ENCODING.ordinal()] != -1
+                && known[HttpHeader.CONTENT_LENGTH.ordinal()] != -1) {
+            throw new HttpException("Request has both a Transfer-Encoding and a Content-Length");
+        }
+
+        // Only the last one would be used, so lengths that don't agree are
+        // the same kind of problem, per RFC 7230#3.3.2.
+        if (repeatedLength) {
+            checkContentLengths(buffer);
+        }
+
+        headEnd = end;
+        state = COMPLETE;
+    }
+
+    private void checkContentLengths(byte[] buffer) throws HttpException {
+        int first = -1;
+        for (int header = 0; header < headerCount; header++) {
+            if (names[header] != HttpHeader.CONTENT_LENGTH) {
+                continue;
+            }
+
+            if (first == -1) {
+                first = header;
+            } else if (!sameValue(buffer, first, header)) {
+                throw new HttpException("Request has more than one Content-Length");
+            }
+        }
+    }
+
+    private boolean sameValue(byte[] buffer, int a, int b) {
+        int aStart = headers[a * 4 + 2], aEnd = headers[a * 4 + 3];
+        int bStart = headers[b * 4 + 2], bEnd = headers[b * 4 + 3];
+        if (aEnd - aStart != bEnd - bStart) {
+            return false;
+        }
+
+        for (int i = 0; i < aEnd - aStart; i++) {
+            if (buffer[aStart + i] != buffer[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startHeader(int nameStart) throws HttpException {
+        if (headerCount == maxHeaders) {
+            throw new HttpException(431, "More than " + maxHeaders + " headers");
+        }
+
+        if (headerCount * 4 == headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+
+        int header = headerCount * 4;
+        headers[header] = nameStart;
+        headers[header + 1] = nameStart;
+        names[headerCount] = null;
+        headerCount++;
+    }
+
+    private void endName(byte[] buffer, int nameEnd) {
+        int header = headerCount - 1;
+        headers[header * 4 + 1] = nameEnd;
+
+        HttpHeader name = HttpHeader.lookup(buffer, headers[header * 4], nameEnd);
+        names[header] = name;
+        if (name != null) {
+            if (name == HttpHeader.CONTENT_LENGTH && known[name.ordinal()] != -1) {
+                repeatedLength = true;
+            }
+            known[name.ordinal()] = header;
+        }
+    }
+
+
+    /**
+     * Figure out if a byte can be part of a method or header name (an RFC
+     * 2616#2.2 token).
+     */
+    private static boolean isTokenByte(byte b) {
+        if (b <= 32 || b >= 127) {
+            return false;
+        }
+
+        switch (b) {
+            case '(': case ')': case '<': case '>': case '@':
+            case ',': case ';': case ':': case '\\': case '"':
+            case '/': case '[': case ']': case '?': case '=':
+            case '{': case '}':
+                return false;
+            default:
+                return true;
+        }
+    }
+
+
+    /**
+     * Figure out if the entire head has been parsed.
+     * @return true if it has.
+     */
+    public boolean isComplete() {
+        return state == COMPLETE;
+    }
+
+    /**
+     * Get where the head ends, and the body (if there is one) starts.
+     * @return The offset just past the head's final blank line.
+     */
+    public int getHeadEnd() {
+        return headEnd;
+    }
+
+    /**
+     * Get where the request starts, after any leading blank lines.
+     * @return The offset of the request line.
+     */
+    public int getStart() {
+        return start;
+    }
+
+
+    /**
+     * Figure out if the method is exactly {@code method}, without creating a
+     * String.
+     *
+     * @param buffer  The bytes the request is in.
+     * @param method  The method to compare to, in bytes.
+     * @return true if they're the same.
+     */
+    public boolean methodEquals(byte[] buffer, byte[] method) {
+        return regionEquals(buffer, methodStart, methodEnd, method);
+    }
+
+    public String getMethod(byte[] buffer) {
+        return string(buffer, methodStart, methodEnd);
+    }
+    public String getTarget(byte[] buffer) {
+        return string(buffer, targetStart, targetEnd);
+    }
+    public String getProtocol(byte[] buffer) {
+        return string(buffer, protocolStart, protocolEnd);
+    }
+    public String getRequestLine(byte[] buffer) {
+        return string(buffer, methodStart, protocolEnd);
+    }
+
+
+    /**
+     * Get the number of headers the request has.
+     * @return The number of headers.
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Get a header's name. Well-known names come back in their usual
+     * capitalization, without creating a String.
+     *
+     * @param buffer  The bytes the request is in.
+     * @param header  The header's index.
+     * @return The header's name.
+     */
+    public String getHeaderName(byte[] buffer, int header) {
+        if (names[header] != null) {
+            return names[header].getName();
+        }
+
+        return string(buffer, headers[header * 4], headers[header * 4 + 1]);
+    }
+
+    /**
+     * Get a header's well-known name.
+     *
+     * @param header  The header's index.
+     * @return The header's name, or null if it isn't a well-known one.
+     */
+    public HttpHeader getKnownHeader(int header) {
+        return names[header];
+    }
+
+    public String getHeaderValue(byte[] buffer, int header) {
+        int valueStart = headers[header * 4 + 2];
+        int valueEnd = headers[header * 4 + 3];
+
+        if (!folded) {
+            return string(buffer, valueStart, valueEnd);
+        }
+
+        return unfold(string(buffer, valueStart, valueEnd));
+    }
+
+    /**
+     * Turn every line break inside of a value, and the whitespace around it,
+     * into a single space.
+     */
+    private static String unfold(String value) {
+        return value.replaceAll("[ \t]*\r?\n[ \t]*", " ");
+    }
+
+
+    /**
+     * Find a well-known header, in constant time.
+     *
+     * @param name    The header's name.
+     * @return The header's index, or -1 if the request doesn't have it. If
+     *         the header is repeated, its last index is returned, so the last
+     *         value wins, the same as it would in a map.
+     */
+    public int findHeader(HttpHeader name) {
+        return known[name.ordinal()];
+    }
+
+    /**
+     * Find a header by name, ignoring case, without creating any Strings.
+     *
+     * @param buffer  The bytes the request is in.
+     * @param name    The header's name.
+     * @return The header's index, or -1 if the request doesn't have it.
+     */
+    public int findHeader(byte[] buffer, String name) {
+        HttpHeader header = HttpHeader.forName(name);
+        if (header != null) {
+            return findHeader(header);
+        }
+
+        for (int i = headerCount - 1; i >= 0; i--) {
+            int nameStart = headers[i * 4];
+            if (headers[i * 4 + 1] - nameStart != name.length()) {
+                continue;
+            }
+
+            int j = 0;
+            while (j < name.length()
+                    && Character.toLowerCase((char) buffer[nameStart + j])
+                        == Character.toLowerCase(name.charAt(j))) {
+                j++;
+            }
+
+            if (j == name.length()) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Read a header's value as a non-negative number, without creating any
+     * Strings.
+     *
+     * @param buffer  The bytes the request is in.
+     * @param header  The header's index.
+     * @return The header's value.
+     * @throws HttpException  When the value isn't a non-negative number, or
+     *                        is too big to be an int.
+     */
+    public int getHeaderInt(byte[] buffer, int header) throws HttpException {
+        int valueStart = headers[header * 4 + 2];
+        int valueEnd = headers[header * 4 + 3];
+
+        if (valueStart == valueEnd) {
+            throw new HttpException("Expected a number in " + getHeaderName(buffer, header));
+        }
+
+        long value = 0;
+        for (int i = valueStart; i < valueEnd; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                throw new HttpException("Expected a number in " + getHeaderName(buffer, header));
+            }
+
+            value = value * 10 + (b - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw new HttpException("Number too large in " + getHeaderName(buffer, header));
+            }
+        }
+
+        return (int) value;
+    }
+
+
+    private static boolean regionEquals(byte[] buffer, int start, int end, byte[] other) {
+        if (end - start != other.length) {
+            return false;
+        }
+
+        for (int i = 0; i < other.length; i++) {
+            if (buffer[start + i] != other[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String string(byte[] buffer, int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
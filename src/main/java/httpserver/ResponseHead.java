@@ -0,0 +1,135 @@
+package httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A ResponseHead is a buffer a response's status line and headers are put
+ * together in, so they can be sent in one write instead of a line at a
+ * time. <p>
+ *
+ * Each thread reuses the same ResponseHead for every response it sends, so
+ * putting a head together doesn't allocate anything once the buffer is big
+ * enough. Small bodies can be tacked on the end too, so the whole response
+ * goes out at once.
+ *
+ * @see HttpResponse#respond()
+ */
+class ResponseHead {
+    /** The largest response (head and body) that's copied into one buffer */
+    public static final int coalesceLimit = 16 * 1024;
+
+    /** Buffers that grow past this aren't kept for the next response */
+    public static final int maxPooledSize = 64 * 1024;
+
+    private static final int initialSize = 1024;
+
+    private static final ThreadLocal<ResponseHead> pool
+        = ThreadLocal.withInitial(ResponseHead::new);
+
+    private byte[] bytes = new byte[initialSize];
+    private int length = 0;
+
+
+    /**
+     * Get the current thread's ResponseHead, emptied out.
+     * @return An empty ResponseHead.
+     */
+    public static ResponseHead get() {
+        ResponseHead head = pool.get();
+        if (head.bytes.length > maxPooledSize) {
+            head.bytes = new byte[initialSize];
+        }
+
+        head.length = 0;
+        return head;
+    }
+
+
+    /**
+     * Add some bytes.
+     * @param b   The bytes to add.
+     */
+    public void append(byte[] b) {
+        append(b, 0, b.length);
+    }
+
+    public void append(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, bytes, length, len);
+        length += len;
+    }
+
+    /**
+     * Add a String, which is usually plain ASCII. Anything that isn't is
+     * encoded as UTF-8, instead of being cut down to a byte.
+     *
+     * @param s   The String to add.
+     */
+    public void append(String s) {
+        int count = s.length();
+        ensureCapacity(count);
+
+        for (int i = 0; i < count; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                append(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            bytes[length++] = (byte) c;
+        }
+    }
+
+    /**
+     * Add a number, without turning it into a String first.
+     * @param n   The number to add.
+     */
+    public void append(long n) {
+        if (n < 0) {
+            append(Long.toString(n));
+            return;
+        }
+
+        int digits = 1;
+        for (long rest = n / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + n % 10);
+            n /= 10;
+        }
+        length += digits;
+    }
+
+    /**
+     * Add a line ending.
+     */
+    public void endLine() {
+        ensureCapacity(2);
+        bytes[length++] = '\r';
+        bytes[length++] = '\n';
+    }
+
+
+    private void ensureCapacity(int more) {
+        if (length + more > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+        }
+    }
+
+
+    /**
+     * Get the buffer. Only the first {@link #getLength()} bytes are the head.
+     * @return The buffer.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
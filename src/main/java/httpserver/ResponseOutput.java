@@ -0,0 +1,41 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ResponseOutput is a connection's output stream that can send a
+ * response's head and body together, in a single gathering write, without
+ * copying them into one buffer first. File bodies are sent straight from the
+ * file to the connection, without passing through the JVM at all, where the
+ * operating system can (sendfile on Linux).
+ *
+ * @see HttpResponse#respond()
+ */
+interface ResponseOutput {
+    /**
+     * Write a response's head, followed by its body.
+     *
+     * @param head        The head's bytes.
+     * @param headLength  The length of the head.
+     * @param body        The body, from its position to its limit. The
+     *                    position is left where it is.
+     * @throws IOException  When the connection can't be written to.
+     */
+    void writeResponse(byte[] head, int headLength, ByteBuffer body) throws IOException;
+
+    /**
+     * Write a response's head, followed by part of a file.
+     *
+     * @param head        The head's bytes.
+     * @param headLength  The length of the head.
+     * @param file        The file.
+     * @param position    Where in the file to start.
+     * @param count       How many bytes of the file to send.
+     * @throws IOException  When the connection can't be written to, or the
+     *                      file can't be read.
+     */
+    void writeFile(byte[] head, int headLength, FileChannel file, long position, long count)
+        throws IOException;
+}
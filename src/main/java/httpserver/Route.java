@@ -2,60 +2,50 @@ package httpserver;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
 
 public abstract class Route {
-    private List<String> routePath = new ArrayList<>();
-    private boolean usesVarargs = false;
+    /** A segment that has to match exactly */
+    static final int LITERAL = 0;
+    /** A {@code {name}} segment, that matches any one segment */
+    static final int PARAM = 1;
+    /** A {@code {*}} segment, that matches the rest of the path */
+    static final int VARARGS = 2;
 
+    // Figured out once, here, so matching a request doesn't take any regex.
+    private final Segment[] segments;
+    private final boolean usesVarargs;
 
-    public Route(String path) {
-        String[] pathSegments = cleanPath(path).split("/");
 
-        for (int i = 0; i < pathSegments.length; i++) {
-            if (pathSegments[i].isEmpty()) {
+    public Route(String path) {
+        List<Segment> routePath = new ArrayList<>();
+        for (String segment : cleanPath(path).split("/")) {
+            if (segment.isEmpty()) {
                 continue;
             }
 
-            routePath.add(pathSegments[i]);
-
-            if (pathSegments[i].equals("{*}")) {
-                if (i != pathSegments.length - 1) {
-                    while (++i < pathSegments.length && pathSegments[i].isEmpty());
-                    if (i != pathSegments.length - 1) {
-                        throw new RuntimeException("\"{*}\" must be the final segment in your path.");
-                    }
-
-                    usesVarargs = true;
-                }
+            if (!routePath.isEmpty() && routePath.get(routePath.size() - 1).type == VARARGS) {
+                throw new RuntimeException("\"{*}\" must be the final segment in your path.");
             }
+
+            routePath.add(new Segment(segment));
         }
+
+        this.segments = routePath.toArray(new Segment[0]);
+        this.usesVarargs = segments.length > 0 && segments[segments.length - 1].type == VARARGS;
     }
 
 
+    /**
+     * Handle a request that matched the route. Parameters aren't copied out
+     * of the path here; the request reads them out of it when they're asked
+     * for.
+     *
+     * @param request   The request.
+     * @param response  The response.
+     * @see HttpRequest#getParam
+     */
     public void invoke(HttpRequest request, HttpResponse response) {
-        Map<String, String> urlParams = new HashMap<>();
-        List<String> varargs = new ArrayList<>();
-
-        List<String> calledPath = request.getSplitPath();
-
-        for (int i = 0; i < routePath.size(); i++) {
-            if (isDynamic(routePath.get(i))) {
-                urlParams.put(stripDynamic(routePath.get(i)), calledPath.get(i));
-            }
-
-            if (routePath.get(i).equals("{*}")) {
-                while (i < calledPath.size()) {
-                    varargs.add(calledPath.get(i));
-                    i++;
-                }
-            }
-        }
-
-        request.mergeParams(urlParams);
-        request.mergeVarargs(varargs);
-
+        request.setRoute(this);
         handle(request, response);
     }
 
@@ -63,20 +53,20 @@ public abstract class Route {
     public int howCorrect(List<String> calledPath) {
         // If the paths aren't the same length and it is not an array,
         // this is the wrong method.
-        if (calledPath.size() != routePath.size()) {
-            if (!usesVarargs) {
+        if (calledPath.size() != segments.length) {
+            if (!usesVarargs || calledPath.size() < segments.length) {
                 return 0;
             }
         }
 
         // Start count at 1 because of the length matching.
         int count = 1;
-        for (int i = 0; i < routePath.size(); i++) {
+        for (int i = 0; i < segments.length; i++) {
             // If the paths are equal, give it priority over other methods.
-            if (routePath.get(i).equals(calledPath.get(i))) {
+            if (segments[i].text.equals(calledPath.get(i))) {
                 count += 2;
             }
-            else if (isDynamic(routePath.get(i))) {
+            else if (segments[i].type != LITERAL) {
                 count += 1;
             }
         }
@@ -84,13 +74,60 @@ public abstract class Route {
     }
 
 
-    private boolean isDynamic(String path) {
+    static boolean isDynamic(String path) {
         return path.matches("\\{([A-Za-z0-9]{1,}|\\*)\\}");
     }
 
 
     public boolean matchesPerfectly(List<String> path) {
-        return routePath.equals(path);
+        if (path.size() != segments.length) {
+            return false;
+        }
+
+        for (int i = 0; i < segments.length; i++) {
+            if (!segments[i].text.equals(path.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Find where one of the route's params is in its path.
+     * @param name  The param's name.
+     * @return The param's segment index, or -1 if there isn't one.
+     */
+    int indexOfParam(String name) {
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].type == PARAM && segments[i].name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Get what kind of segment the route has somewhere in its path.
+     * @param i   The segment's index.
+     * @return {@link #LITERAL}, {@link #PARAM}, or {@link #VARARGS}.
+     */
+    int getSegmentType(int i) {
+        return segments[i].type;
+    }
+
+    /**
+     * Get a segment of the route's path.
+     * @param i   The segment's index.
+     * @return The segment as it was written, or a param's name, without its
+     *         braces.
+     */
+    String getSegment(int i) {
+        return segments[i].name;
     }
 
 
@@ -113,4 +150,25 @@ public abstract class Route {
 
 
     public abstract void handle(HttpRequest request, HttpResponse response);
+
+
+    private static class Segment {
+        private final int type;
+        private final String text;
+        private final String name;
+
+        private Segment(String text) {
+            this.text = text;
+            if (text.equals("{*}")) {
+                this.type = VARARGS;
+                this.name = text;
+            } else if (isDynamic(text)) {
+                this.type = PARAM;
+                this.name = stripDynamic(text);
+            } else {
+                this.type = LITERAL;
+                this.name = text;
+            }
+        }
+    }
 }
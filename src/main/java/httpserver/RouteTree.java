@@ -0,0 +1,111 @@
+package httpserver;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A RouteTree holds the routes for one HTTP method, arranged by path segment,
+ * so finding the route for a path only takes as many steps as the path has
+ * segments, no matter how many routes there are. <p>
+ *
+ * Each node in the tree can have any number of literal children, one
+ * {@code {param}} child, and one {@code {*}} child. When a path is looked
+ * up, a literal segment is tried first, then a param, then {@code {*}}, so
+ * {@code /hello/world} picks {@code /hello/world} over
+ * {@code /hello/{name}}, and that over {@code /hello/{*}}. If the literal
+ * branch doesn't lead to a route, the param branch is tried instead, and so
+ * on. <p>
+ *
+ * A {@code {*}} matches the rest of the path, as long as there's at least
+ * one segment left. <p>
+ *
+ * Routes are added before the server starts, and after that the tree is only
+ * read, so it isn't synchronized.
+ *
+ * @see HttpHandler#addRoute
+ */
+final class RouteTree {
+    private final Node root = new Node();
+
+
+    /**
+     * Add a route to the tree. If there's already a route with the same
+     * shape (the same literals, and params and {@code {*}} in the same
+     * places), the one that was added first is kept.
+     *
+     * @param route   The route.
+     */
+    public void add(Route route) {
+        Node node = root;
+        for (int i = 0; i < route.getSegmentCount(); i++) {
+            int type = route.getSegmentType(i);
+            if (type == Route.VARARGS) {
+                if (node.wildcard == null) {
+                    node.wildcard = new Node();
+                }
+                node = node.wildcard;
+            } else if (type == Route.PARAM) {
+                if (node.param == null) {
+                    node.param = new Node();
+                }
+                node = node.param;
+            } else {
+                String segment = route.getSegment(i);
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+        }
+
+        if (node.route == null) {
+            node.route = route;
+        }
+    }
+
+    /**
+     * Find the route for a path.
+     *
+     * @param path  The path, split by {@code /}.
+     * @param from  Where in the path to start, past any prefix the handler
+     *              is mounted at.
+     * @return The best route, or null if there isn't one.
+     */
+    public Route find(List<String> path, int from) {
+        return find(root, path, from);
+    }
+
+    private static Route find(Node node, List<String> path, int depth) {
+        if (depth == path.size()) {
+            return node.route;
+        }
+
+        Node child = node.children.get(path.get(depth));
+        if (child != null) {
+            Route route = find(child, path, depth + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+
+        if (node.param != null) {
+            Route route = find(node.param, path, depth + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+
+        return node.wildcard == null ? null : node.wildcard.route;
+    }
+
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private Node param;
+        private Node wildcard;
+        private Route route;
+    }
+}
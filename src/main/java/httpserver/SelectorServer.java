@@ -0,0 +1,116 @@
+package httpserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * A SelectorServer is the non-blocking alternative to the plain
+ * {@link java.net.ServerSocket} loop in {@link HttpServer#run()}. <p>
+ *
+ * Accepted connections are spread across a fixed number of
+ * {@link EventLoop}s, each running on its own thread. The loops read requests
+ * without blocking, and only hand complete requests off to worker threads,
+ * so the number of threads no longer grows with the number of open
+ * connections. Handlers and Routes work exactly the same either way.
+ *
+ * @see HttpServer#useEventLoops
+ */
+class SelectorServer {
+    private final HttpServer server;
+    private final EventLoop[] loops;
+    private final Thread[] threads;
+
+    private ServerSocketChannel socket;
+
+
+    /**
+     * Create a SelectorServer for an HttpServer.
+     *
+     * @param server    The server whose port, router, and executor are used.
+     * @param loopCount The number of EventLoops to run.
+     * @throws IOException  When a Selector can't be opened.
+     */
+    public SelectorServer(HttpServer server, int loopCount) throws IOException {
+        this.server = server;
+        this.loops = new EventLoop[loopCount];
+        this.threads = new Thread[loopCount];
+
+        Executor workers = server.getExecutor();
+        if (workers == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            workers = new WorkerPool(cores, cores * 8, 1024);
+        }
+
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(server, workers);
+            threads[i] = new Thread(loops[i], "httpserver-eventloop-" + (i + 1));
+        }
+    }
+
+
+    /**
+     * Start the EventLoops, and accept connections until the server socket
+     * is closed.
+     */
+    public void run() {
+        try {
+            socket = ServerSocketChannel.open();
+            socket.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            socket.bind(new InetSocketAddress(server.getPort()));
+
+            System.out.println("Starting HttpServer at http://127.0.0.1:"
+                    + server.getPort() + " with " + loops.length + " event loops");
+
+            for (Thread t : threads) {
+                t.start();
+            }
+
+            int next = 0;
+            while (socket.isOpen()) {
+                SocketChannel connection = socket.accept();
+                try {
+                    connection.configureBlocking(false);
+                    connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    System.err.println("Client broke connection early!");
+                    e.printStackTrace();
+                    connection.close();
+                    continue;
+                }
+
+                loops[next].register(connection);
+                next = (next + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            if (socket != null && socket.isOpen()) {
+                System.err.println("Something bad happened...");
+                e.printStackTrace();
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+
+    /**
+     * Stop accepting connections, and shut down every EventLoop.
+     */
+    public void shutdown() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Well that's not good...");
+            e.printStackTrace();
+        }
+
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package httpserver;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A SocketConnection is an {@link HttpConnection} over a plain, blocking
+ * {@link Socket}, used by {@link HttpServer#run()}. <p>
+ *
+ * One thread reads every request on the connection in turn, and waits up to
+ * the server's idle timeout between them. Pipelined requests are read
+ * straight out of the connection's input buffer, right behind the request
+ * before them.
+ */
+class SocketConnection extends HttpConnection {
+    private final Socket socket;
+    private final RequestInput input;
+    private final OutputStream output;
+
+
+    /**
+     * Create a SocketConnection.
+     *
+     * @param server    The server that accepted the socket.
+     * @param socket    A connected socket.
+     * @throws IOException  When the socket's streams can't be opened.
+     */
+    public SocketConnection(HttpServer server, Socket socket) throws IOException {
+        super(server);
+        this.socket = socket;
+
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(server.getIdleTimeout());
+
+        this.input = new RequestInput(socket.getInputStream());
+        this.output = new SocketOutputStream(socket);
+    }
+
+
+    @Override
+    public void run() {
+        try {
+            boolean keepAlive = true;
+            while (keepAlive && awaitRequest()) {
+                HttpRequest request = new HttpRequest(getServer().getRouter(), input, output);
+                request.setConnection(socket);
+
+                keepAlive = exchange(request);
+            }
+        } catch (IOException e) {
+            // The connection timed out, or the client went away.
+        } finally {
+            close();
+        }
+    }
+
+
+    /**
+     * Wait until the client sends something, or closes the connection.
+     *
+     * @return false if the client closed the connection.
+     * @throws IOException  When the connection times out.
+     */
+    private boolean awaitRequest() throws IOException {
+        return input.awaitData();
+    }
+
+
+    @Override
+    protected boolean hasPipelinedRequest() throws IOException {
+        return input.available() > 0;
+    }
+
+    @Override
+    protected InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    protected OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * A buffered OutputStream to the socket that, when the socket has a
+     * channel underneath (like the ones {@link HttpServer#run()} accepts),
+     * sends big responses with a gathering write and files with
+     * {@link FileChannel#transferTo}. Without a channel, it just copies. <p>
+     *
+     * Only the connection's own thread ever writes to it, so none of it is
+     * synchronized. BufferedOutputStream's methods hold a monitor while they
+     * write to the socket, which pins a virtual thread to its carrier, so
+     * they're replaced here with ones that don't.
+     */
+    private static class SocketOutputStream extends BufferedOutputStream implements ResponseOutput {
+        private final SocketChannel channel;
+
+        public SocketOutputStream(Socket socket) throws IOException {
+            super(socket.getOutputStream());
+            this.channel = socket.getChannel();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) {
+                flushBuffer();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= buf.length) {
+                flushBuffer();
+                out.write(b, off, len);
+                return;
+            }
+
+            if (len > buf.length - count) {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            if (count > 0) {
+                out.write(buf, 0, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void writeResponse(byte[] head, int headLength,
+                ByteBuffer body) throws IOException {
+            body = body.duplicate();
+            if (channel == null || headLength + body.remaining() <= buf.length - count) {
+                write(head, 0, headLength);
+                HttpResponse.copyBuffer(body, this);
+                return;
+            }
+
+            ByteBuffer[] buffers = {ByteBuffer.wrap(buf, 0, count),
+                ByteBuffer.wrap(head, 0, headLength), body};
+            count = 0;
+
+            // The channel is blocking, so it takes everything eventually.
+            while (buffers[0].hasRemaining() || buffers[1].hasRemaining()
+                    || buffers[2].hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+
+        @Override
+        public void writeFile(byte[] head, int headLength,
+                FileChannel file, long position, long length) throws IOException {
+            write(head, 0, headLength);
+
+            if (channel == null) {
+                HttpResponse.copyFile(file, position, length, this);
+                return;
+            }
+
+            flush();
+
+            long end = position + length;
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, channel);
+                if (sent == 0 && position >= file.size()) {
+                    throw new IOException("File is shorter than expected");
+                }
+                position += sent;
+            }
+        }
+    }
+}
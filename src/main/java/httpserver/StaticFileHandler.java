@@ -0,0 +1,479 @@
+package httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A StaticFileHandler serves the files in a directory. <p>
+ *
+ * Register it with the router under the path segment it should answer to:
+ *
+ * <pre>
+ *     server.getRouter().addHandler("static", new StaticFileHandler("/var/www"));
+ * </pre>
+ *
+ * and a request for {@code /static/css/site.css} gets
+ * {@code /var/www/css/site.css}. <p>
+ *
+ * Files are never read into memory; they're sent with
+ * {@link HttpResponse#setFile}, which hands them to the operating system to
+ * send where it can. The Content-Type is picked from the file's extension.
+ * A request for a directory gets the directory's index file, if it has one.
+ * Nothing outside of the root directory is ever served, no matter how the
+ * path is written (with {@code ..}, encoded slashes, or symbolic links). <p>
+ *
+ * Small files that are requested a lot can be kept in memory by giving the
+ * handler a {@link FileCache}. A cached file is served without going to the
+ * filesystem at all. <p>
+ *
+ * Clients can ask for parts of a file with a Range header, to resume a
+ * download or seek in a video, and get a {@code 206 Partial Content}.
+ * Every file gets an ETag and a Last-Modified date, so a client that already
+ * has a file gets a {@code 304 Not Modified} instead of the file again. <p>
+ *
+ * Files aren't compressed on the fly. Instead, a file compressed ahead of
+ * time, and put next to the original with a {@code .gz} on the end, is sent
+ * (still straight from disk) to clients that accept gzip.
+ */
+public class StaticFileHandler extends HttpHandler {
+    /** The Content-Type for files with an unknown extension */
+    public static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private static final Map<String, String> mimeTypes = new HashMap<>();
+
+    static {
+        mimeTypes.put("html", "text/html; charset=utf-8");
+        mimeTypes.put("htm", "text/html; charset=utf-8");
+        mimeTypes.put("css", "text/css; charset=utf-8");
+        mimeTypes.put("js", "text/javascript; charset=utf-8");
+        mimeTypes.put("mjs", "text/javascript; charset=utf-8");
+        mimeTypes.put("json", "application/json");
+        mimeTypes.put("map", "application/json");
+        mimeTypes.put("txt", "text/plain; charset=utf-8");
+        mimeTypes.put("md", "text/markdown; charset=utf-8");
+        mimeTypes.put("csv", "text/csv; charset=utf-8");
+        mimeTypes.put("xml", "application/xml");
+        mimeTypes.put("pdf", "application/pdf");
+        mimeTypes.put("wasm", "application/wasm");
+        mimeTypes.put("zip", "application/zip");
+        mimeTypes.put("gz", "application/gzip");
+
+        mimeTypes.put("png", "image/png");
+        mimeTypes.put("jpg", "image/jpeg");
+        mimeTypes.put("jpeg", "image/jpeg");
+        mimeTypes.put("gif", "image/gif");
+        mimeTypes.put("webp", "image/webp");
+        mimeTypes.put("avif", "image/avif");
+        mimeTypes.put("svg", "image/svg+xml");
+        mimeTypes.put("ico", "image/x-icon");
+
+        mimeTypes.put("woff", "font/woff");
+        mimeTypes.put("woff2", "font/woff2");
+        mimeTypes.put("ttf", "font/ttf");
+        mimeTypes.put("otf", "font/otf");
+
+        mimeTypes.put("mp3", "audio/mpeg");
+        mimeTypes.put("ogg", "audio/ogg");
+        mimeTypes.put("wav", "audio/wav");
+        mimeTypes.put("mp4", "video/mp4");
+        mimeTypes.put("webm", "video/webm");
+    }
+
+    private final Path root;
+    private String indexFile = "index.html";
+    private FileCache cache;
+    private boolean precompressed = true;
+
+
+    /**
+     * Create a StaticFileHandler.
+     *
+     * @param root  The directory to serve files from.
+     * @throws IOException  When the directory doesn't exist.
+     */
+    public StaticFileHandler(String root) throws IOException {
+        this(Paths.get(root));
+    }
+
+    public StaticFileHandler(Path root) throws IOException {
+        super();
+        this.root = root.toRealPath();
+
+        if (!Files.isDirectory(this.root)) {
+            throw new IOException(root + " isn't a directory");
+        }
+    }
+
+
+    /**
+     * Send the requested file. Only GET and HEAD requests are answered.
+     */
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) {
+        if (!request.isType(HttpRequest.GET_REQUEST_TYPE)
+                && !request.isType(HttpRequest.HEAD_REQUEST_TYPE)) {
+            response.setHeader("Allow", "GET, HEAD");
+            response.message(405, "Files can only be fetched");
+            return;
+        }
+
+        String path = stripQuery(request.getPath());
+        Path file = normalize(path);
+        if (file == null) {
+            response.message(404, "Not Found");
+            return;
+        }
+
+        if (path.endsWith("/")) {
+            file = file.resolve(indexFile);
+        }
+
+        // Clients that take gzip get the file's .gz sibling instead, if it
+        // has one.
+        Path gzipFile = null;
+        if (precompressed && Compressor.isCompressible(getMimeType(file))) {
+            response.setHeader("Vary", "Accept-Encoding");
+
+            String acceptEncoding = request.getHeader(HttpHeader.ACCEPT_ENCODING);
+            if (Compressor.quality(acceptEncoding, Compressor.GZIP) > 0) {
+                gzipFile = file.resolveSibling(file.getFileName() + ".gz");
+            }
+        }
+
+        // A cached file was checked when it was loaded, so it can be sent
+        // without looking at the filesystem again.
+        if (cache != null) {
+            FileCache.Entry gzipped = gzipFile == null ? null : cache.get(gzipFile);
+            if (gzipped != null && gzipped.exists()) {
+                response.setHeader("Content-Encoding", Compressor.GZIP);
+                response.setBody(gzipped.getContents());
+                describe(request, response, file, gzipped.getLength(), gzipped.getLastModified());
+                return;
+            }
+
+            // Until it's known whether there's a .gz, the plain file won't do.
+            if (gzipFile == null || gzipped != null) {
+                FileCache.Entry cached = cache.get(file);
+                if (cached != null && cached.exists()) {
+                    response.setBody(cached.getContents());
+                    describe(request, response, file, cached.getLength(), cached.getLastModified());
+                    return;
+                }
+            }
+        }
+
+        Path realFile = toRealPath(file);
+        BasicFileAttributes attributes = realFile == null ? null : readAttributes(realFile);
+        if (attributes == null) {
+            response.message(404, "Not Found");
+            return;
+        }
+
+        if (attributes.isDirectory()) {
+            // Relative links in the index only work if the path ends in /.
+            String fullPath = stripQuery(request.getFullPath());
+            if (!fullPath.endsWith("/")) {
+                response.setHeader("Location", fullPath + "/");
+                response.message(301, "Moved Permanently");
+            } else {
+                response.message(404, "Not Found");
+            }
+            return;
+        }
+
+        if (!attributes.isRegularFile() || !Files.isReadable(realFile)) {
+            response.message(404, "Not Found");
+            return;
+        }
+
+        if (gzipFile != null) {
+            Path realGzipFile = toRealPath(gzipFile);
+            BasicFileAttributes gzipAttributes = realGzipFile == null ? null
+                : readAttributes(realGzipFile);
+
+            if (gzipAttributes != null && gzipAttributes.isRegularFile()
+                    && Files.isReadable(realGzipFile)) {
+                response.setHeader("Content-Encoding", Compressor.GZIP);
+                send(request, response, file, gzipFile, realGzipFile, gzipAttributes);
+                return;
+            }
+
+            if (cache != null) {
+                cache.addMissing(gzipFile);
+            }
+        }
+
+        send(request, response, file, file, realFile, attributes);
+    }
+
+    /**
+     * Send a file, from the cache if it can be cached.
+     *
+     * @param file        The file that was asked for.
+     * @param source      The file that's sent, which is either the file that
+     *                    was asked for, or its .gz sibling.
+     * @param realSource  Where the file that's sent really is.
+     * @param attributes  The attributes of the file that's sent.
+     */
+    private void send(HttpRequest request, HttpResponse response, Path file,
+            Path source, Path realSource, BasicFileAttributes attributes) {
+        FileCache.Entry cached = cache == null ? null : cache.load(source);
+        if (cached != null) {
+            response.setBody(cached.getContents());
+            describe(request, response, file, cached.getLength(), cached.getLastModified());
+        } else {
+            response.setFile(realSource, 0, attributes.size());
+            describe(request, response, file, attributes.size(),
+                    attributes.lastModifiedTime().toMillis());
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fill in the headers that describe the file, and narrow the response
+     * down to the ranges the client asked for, if it asked for any.
+     *
+     * @param file          The file, which its body is already set to.
+     * @param length        The file's length.
+     * @param lastModified  When the file was last modified.
+     */
+    private void describe(HttpRequest request, HttpResponse response, Path file,
+            long length, long lastModified) {
+        // Files are sent as they are; compressing them on every request
+        // would throw away the point of sending them straight from disk.
+        response.setCompression(false);
+        response.setMimeType(getMimeType(file));
+        response.setHeader("Accept-Ranges", "bytes");
+
+        // Like most servers, the ETag is made from the modification time and
+        // size, so it doesn't take reading the file.
+        response.setETag(Long.toHexString(lastModified) + "-" + Long.toHexString(length));
+        response.setLastModified(lastModified);
+        if (response.checkNotModified()) {
+            return;
+        }
+
+        String range = request.getHeader(HttpHeader.RANGE);
+        if (range == null || !request.isType(HttpRequest.GET_REQUEST_TYPE)) {
+            return;
+        }
+
+        // A client resuming a download only wants the rest of the file if
+        // it's the same file it got the start of; otherwise it gets all of it.
+        String ifRange = request.getHeader(HttpHeader.IF_RANGE);
+        if (ifRange != null && !isSameFile(ifRange.trim(), response)) {
+            return;
+        }
+
+        List<ByteRange> ranges = ByteRange.parse(range, length);
+        if (ranges == null) {
+            return;
+        }
+
+        if (ranges.isEmpty()) {
+            response.setHeader("Content-Range", ByteRange.unsatisfiable(length));
+            response.message(416, "Range Not Satisfiable");
+            return;
+        }
+
+        response.setRanges(ranges);
+    }
+
+    /**
+     * Figure out if an If-Range header, either an ETag or a date, matches
+     * the file being sent. ETags have to match exactly (the strong
+     * comparison), and so do dates.
+     */
+    private static boolean isSameFile(String ifRange, HttpResponse response) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return HttpResponse.matchesETag(ifRange, response.getETag(), true);
+        }
+
+        return ifRange.equals(response.getHeader("Last-Modified"));
+    }
+
+
+    /**
+     * Find the file a request path points to, making sure it's inside of the
+     * root directory. Nothing is looked up on the filesystem; the path is
+     * only decoded and normalized.
+     *
+     * @param path  The request's path, relative to the handler.
+     * @return The file, or null if the path is malformed, or points outside
+     *         of the root.
+     */
+    protected Path normalize(String path) {
+        String decoded = decode(stripQuery(path));
+        if (decoded == null) {
+            return null;
+        }
+
+        // Leading slashes would make the path absolute.
+        int start = 0;
+        while (start < decoded.length() && decoded.charAt(start) == '/') {
+            start++;
+        }
+
+        try {
+            Path file = root.resolve(decoded.substring(start)).normalize();
+            return file.startsWith(root) ? file : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find where a file really is, after following any symbolic links, and
+     * make sure that's still inside of the root directory.
+     *
+     * @param file  The file, from {@link #normalize}.
+     * @return The real file, or null if it doesn't exist, or is outside of
+     *         the root.
+     */
+    protected Path toRealPath(Path file) {
+        try {
+            Path realFile = file.toRealPath();
+            return realFile.startsWith(root) ? realFile : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String stripQuery(String path) {
+        int end = path.indexOf('?');
+        return end == -1 ? path : path.substring(0, end);
+    }
+
+    /**
+     * Decode a path's %XX escapes as UTF-8. Unlike URLDecoder, a {@code +}
+     * is left alone, since it's only a space in query strings.
+     *
+     * @return The decoded path, or null if it's malformed, or decodes to
+     *         something that can't be in a path.
+     */
+    private static String decode(String path) {
+        if (path.indexOf('%') == -1) {
+            return path;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c != '%') {
+                bytes.write(c);
+                continue;
+            }
+
+            if (i + 2 >= path.length()) {
+                return null;
+            }
+
+            int high = Character.digit(path.charAt(i + 1), 16);
+            int low = Character.digit(path.charAt(i + 2), 16);
+            if (high == -1 || low == -1) {
+                return null;
+            }
+
+            int b = (high << 4) | low;
+            if (b == 0 || b == '\\') {
+                return null;
+            }
+
+            bytes.write(b);
+            i += 2;
+        }
+
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Figure out a file's Content-Type from its extension.
+     *
+     * @param file  The file.
+     * @return The file's Content-Type.
+     */
+    public static String getMimeType(Path file) {
+        if (file.getFileName() == null) {
+            return DEFAULT_MIME_TYPE;
+        }
+
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot == -1) {
+            return DEFAULT_MIME_TYPE;
+        }
+
+        String type = mimeTypes.get(name.substring(dot + 1).toLowerCase());
+        return type == null ? DEFAULT_MIME_TYPE : type;
+    }
+
+    /**
+     * Add, or change, the Content-Type used for an extension.
+     *
+     * @param extension   The extension, without the dot.
+     * @param mimeType    The Content-Type.
+     */
+    public static void addMimeType(String extension, String mimeType) {
+        mimeTypes.put(extension.toLowerCase(), mimeType);
+    }
+
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Set the file that's sent for a directory. Defaults to
+     * {@code index.html}.
+     * @param indexFile   The index file's name.
+     */
+    public void setIndexFile(String indexFile) {
+        this.indexFile = indexFile;
+    }
+    public String getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Keep small files in memory. Off by default.
+     * @param cache   The cache to use, or null to not cache anything.
+     */
+    public void setCache(FileCache cache) {
+        this.cache = cache;
+    }
+    public FileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Set whether a file's {@code .gz} sibling, like {@code app.js.gz} for
+     * {@code app.js}, is sent instead of the file to clients that accept
+     * gzip. On by default, but only text-like files are looked for. The
+     * {@code .gz} has to be kept up to date with the file; it isn't checked.
+     *
+     * @param precompressed   Whether to send .gz siblings.
+     */
+    public void setPrecompressed(boolean precompressed) {
+        this.precompressed = precompressed;
+    }
+    public boolean isPrecompressed() {
+        return precompressed;
+    }
+}
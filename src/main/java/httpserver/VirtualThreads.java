@@ -0,0 +1,84 @@
+package httpserver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * VirtualThreads wraps up the bits of JDK 21's virtual threads used by the
+ * {@link HttpServer}. <p>
+ *
+ * Everything is looked up reflectively, so the rest of httpserver still
+ * builds and runs on older JDKs, it just can't use virtual threads there. <p>
+ *
+ * A virtual thread that blocks inside a {@code synchronized} block (or a
+ * native call) pins its carrier thread, which quietly takes away the whole
+ * point of using virtual threads. The JDK can print a stack trace every time
+ * that happens, which is what {@link #tracePinning} turns on.
+ */
+class VirtualThreads {
+    /** The system property the JDK checks for pinning traces */
+    public static final String TRACE_PINNED_THREADS = "jdk.tracePinnedThreads";
+
+    private static Method newExecutor;
+
+    static {
+        try {
+            newExecutor = java.util.concurrent.Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            newExecutor = null;
+        }
+    }
+
+
+    private VirtualThreads() { }
+
+
+    /**
+     * Figure out if the running JDK has virtual threads.
+     * @return true if virtual threads can be used.
+     */
+    public static boolean isSupported() {
+        return newExecutor != null;
+    }
+
+
+    /**
+     * Create an executor that starts a new virtual thread for every task.
+     *
+     * @return A new virtual thread per task ExecutorService.
+     * @throws UnsupportedOperationException  When the JDK doesn't have
+     *                                        virtual threads.
+     */
+    public static ExecutorService newExecutor() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads need JDK 21 or newer, this is "
+                    + System.getProperty("java.version"));
+        }
+
+        try {
+            return (ExecutorService) newExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Couldn't create a virtual thread executor", e);
+        }
+    }
+
+
+    /**
+     * Ask the JDK to print a stack trace whenever a virtual thread blocks
+     * while pinned to its carrier thread. <p>
+     *
+     * The JDK only reads the setting when the first virtual thread is
+     * created, so this has to be called before that happens. If the property
+     * was already set (say, on the command line), it's left alone.
+     *
+     * @param full  Print the full stack trace, instead of only the frames
+     *              holding monitors.
+     */
+    public static void tracePinning(boolean full) {
+        if (System.getProperty(TRACE_PINNED_THREADS) == null) {
+            System.setProperty(TRACE_PINNED_THREADS, full ? "full" : "short");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package httpserver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A WorkerPool is a bounded set of threads used by an {@link HttpServer} to
+ * process incoming connections. <p>
+ *
+ * Without a WorkerPool, the server starts a brand new thread for every
+ * connection it accepts, which means a burst of traffic turns into a burst of
+ * threads. A WorkerPool caps the number of threads, and queues up to a fixed
+ * number of connections waiting for a free thread. Anything beyond that is
+ * turned away with a {@code 503 Service Unavailable}. <p>
+ *
+ * The queue depth and the number of rejected connections can be read while
+ * the server is running, which should make sizing the pool a bit less of a
+ * guessing game.
+ *
+ * @see HttpServer#setWorkerPool
+ */
+public class WorkerPool extends ThreadPoolExecutor {
+    /** How long an idle thread above the core count sticks around, in seconds */
+    public static final long defaultKeepAlive = 60;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+
+    /**
+     * Create a WorkerPool.
+     *
+     * @param coreThreads     The number of threads kept around, even when idle.
+     * @param maxThreads      The most threads the pool will ever run at once.
+     * @param queueCapacity   How many connections can wait for a thread before
+     *                        new ones are rejected.
+     */
+    public WorkerPool(int coreThreads, int maxThreads, int queueCapacity) {
+        super(coreThreads, maxThreads, defaultKeepAlive, TimeUnit.SECONDS,
+                createQueue(queueCapacity), new WorkerThreadFactory());
+
+        setRejectedExecutionHandler(new ServiceUnavailablePolicy());
+    }
+
+
+    /**
+     * A capacity of zero means connections are never queued, and are rejected
+     * as soon as every thread is busy.
+     */
+    private static BlockingQueue<Runnable> createQueue(int capacity) {
+        if (capacity == 0) {
+            return new SynchronousQueue<>();
+        }
+
+        return new ArrayBlockingQueue<>(capacity);
+    }
+
+
+    /**
+     * Get the number of connections waiting for a free thread.
+     * @return The current queue depth.
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * Get the number of connections turned away because the pool and its
+     * queue were full.
+     * @return The total number of rejected connections.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+
+    /**
+     * Answers rejected requests with a 503, instead of throwing an exception
+     * back into the server's accept loop.
+     */
+    private class ServiceUnavailablePolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejected.incrementAndGet();
+
+            if (r instanceof HttpConnection) {
+                ((HttpConnection) r).reject();
+            }
+        }
+    }
+
+
+    /**
+     * Names the pool's threads, so they're easy to spot in a thread dump.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger poolCount = new AtomicInteger();
+
+        private final int pool = poolCount.incrementAndGet();
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "httpserver-" + pool + "-worker-"
+                    + threadCount.incrementAndGet());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import httpserver.ByteRange;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+    private static void assertRanges(String expected, String header, long length) {
+        List<ByteRange> ranges = ByteRange.parse(header, length);
+        assertEquals(header, expected, ranges == null ? null : ranges.toString());
+    }
+
+
+    @Test
+    public void testSimpleRange() {
+        assertRanges("[0-499]", "bytes=0-499", 1000);
+        assertRanges("[0-0]", "bytes=0-0", 1000);
+        assertRanges("[0-499]", "  BYTES=0-499 ", 1000);
+
+        // Ones that run past the end are cut short.
+        assertRanges("[500-999]", "bytes=500-5000", 1000);
+    }
+
+    @Test
+    public void testSuffixRange() {
+        assertRanges("[500-999]", "bytes=-500", 1000);
+        assertRanges("[999-999]", "bytes=-1", 1000);
+
+        // Asking for more than there is gets the whole thing.
+        assertRanges("[0-999]", "bytes=-5000", 1000);
+    }
+
+    @Test
+    public void testOpenEndedRange() {
+        assertRanges("[500-999]", "bytes=500-", 1000);
+        assertRanges("[0-999]", "bytes=0-", 1000);
+        assertRanges("[999-999]", "bytes=999-", 1000);
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        assertRanges("[]", "bytes=1000-", 1000);
+        assertRanges("[]", "bytes=1000-1999", 1000);
+        assertRanges("[]", "bytes=-0", 1000);
+        assertRanges("[]", "bytes=0-10", 0);
+        assertRanges("[]", "bytes=-10", 0);
+
+        assertEquals("bytes */1000", ByteRange.unsatisfiable(1000));
+    }
+
+    @Test
+    public void testMultipleRanges() {
+        assertRanges("[0-99, 200-299, 900-999]", "bytes=0-99,200-299,-100", 1000);
+        assertRanges("[0-99, 500-999]", "bytes=0-99, , 500-", 1000);
+
+        // The ones that can't be satisfied are left out.
+        assertRanges("[0-99]", "bytes=0-99,2000-2099", 1000);
+    }
+
+    @Test
+    public void testTooManyRanges() {
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < ByteRange.maxRanges; i++) {
+            header.append(',').append(i).append('-').append(i);
+        }
+        assertEquals(ByteRange.maxRanges, ByteRange.parse(header.toString(), 1000).size());
+
+        header.append(",100-100");
+        assertNull(ByteRange.parse(header.toString(), 1000));
+    }
+
+    @Test
+    public void testMalformed() {
+        assertRanges(null, "items=0-10", 1000);
+        assertRanges(null, "bytes=", 1000);
+        assertRanges(null, "bytes=,", 1000);
+        assertRanges(null, "bytes=10", 1000);
+        assertRanges(null, "bytes=-", 1000);
+        assertRanges(null, "bytes=10-5", 1000);
+        assertRanges(null, "bytes=a-5", 1000);
+        assertRanges(null, "bytes=5-b", 1000);
+        assertRanges(null, "bytes=0-10,x", 1000);
+        assertRanges(null, "bytes=99999999999999999999-", 1000);
+    }
+
+    @Test
+    public void testContentRange() {
+        ByteRange range = ByteRange.parse("bytes=-500", 1234).get(0);
+
+        assertEquals(734, range.getStart());
+        assertEquals(1233, range.getEnd());
+        assertEquals(500, range.getLength());
+        assertEquals("bytes 734-1233/1234", range.toContentRange(1234));
+        assertEquals(1, new ByteRange(0, 0).getLength());
+    }
+}
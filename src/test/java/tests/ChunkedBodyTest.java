@@ -0,0 +1,100 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import httpserver.HttpRequest;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import tests.mocks.MockInputStream;
+
+public class ChunkedBodyTest {
+    private static final String HEAD =
+        "POST /upload HTTP/1.1\r\n" +
+        "Transfer-Encoding: chunked\r\n" +
+        "\r\n";
+
+    private static HttpRequest parse(String body, int... splits) throws Exception {
+        return RequestParserTest.parse(new MockInputStream(HEAD + body, splits));
+    }
+
+    private static void assertBroken(String body) {
+        try {
+            RequestParserTest.readBody(parse(body));
+            fail("Expected the body to be rejected");
+        } catch (IOException e) {
+            // expected
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Expected an IOException, got " + e);
+        }
+    }
+
+
+    @Test
+    public void testChunks() throws Exception {
+        HttpRequest request = parse("5\r\nhello\r\n7\r\n world!\r\n0\r\n\r\n");
+
+        assertEquals(-1, request.getBodyLength());
+        assertEquals("hello world!", RequestParserTest.readBody(request));
+        assertTrue(request.getTrailers().isEmpty());
+    }
+
+    @Test
+    public void testSizesWithExtensions() throws Exception {
+        HttpRequest request = parse("A;name=value\r\n0123456789\r\n" +
+                "1f ; quoted=\"a;b\"\r\nabcdefghijklmnopqrstuvwxyzABCDE\r\n" +
+                "0;last\r\n\r\n");
+
+        assertEquals("0123456789abcdefghijklmnopqrstuvwxyzABCDE",
+                RequestParserTest.readBody(request));
+    }
+
+    @Test
+    public void testTrailers() throws Exception {
+        String body = "3\r\nabc\r\n0\r\nX-Checksum: 1234\r\nX-Other:  two \r\n\r\n";
+
+        for (int split = 1; split < HEAD.length() + body.length(); split++) {
+            HttpRequest request = parse(body, split);
+            String at = " (split at " + split + ")";
+
+            assertEquals("body" + at, "abc", RequestParserTest.readBody(request));
+            assertEquals("checksum" + at, "1234", request.getTrailers().get("X-Checksum"));
+            assertEquals("other" + at, "two", request.getTrailers().get("X-Other"));
+        }
+    }
+
+    @Test
+    public void testBareLineFeeds() throws Exception {
+        HttpRequest request = parse("4\nwiki\n5\npedia\n0\n\n");
+        assertEquals("wikipedia", RequestParserTest.readBody(request));
+    }
+
+    @Test
+    public void testTruncatedChunk() {
+        assertBroken("a\r\nonly five");
+        assertBroken("5\r\nhello\r\n");
+        assertBroken("5\r\nhello\r\n0\r\n");
+    }
+
+    @Test
+    public void testMalformed() {
+        assertBroken("zz\r\nhello\r\n0\r\n\r\n");
+        assertBroken("3\r\nhello\r\n0\r\n\r\n");
+        assertBroken("\r\n\r\n");
+    }
+
+    @Test
+    public void testContentLengthToo() {
+        RequestParserTest.assertRejected(400, "POST /upload HTTP/1.1\r\n" +
+                "Content-Length: 5\r\n" +
+                "Transfer-Encoding: chunked\r\n" +
+                "\r\n" +
+                "5\r\nhello\r\n0\r\n\r\n");
+        RequestParserTest.assertRejected(400, HEAD.replace("\r\n\r\n",
+                "\r\nContent-Length: 0\r\n\r\n") + "0\r\n\r\n");
+    }
+}
@@ -0,0 +1,201 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import httpserver.HttpException;
+import httpserver.HttpHeader;
+import httpserver.HttpRequest;
+import httpserver.HttpRouter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import tests.mocks.MockInputStream;
+
+public class RequestParserTest {
+    private static final String REQUEST =
+        "POST /hello/world?name=Don HTTP/1.1\r\n" +
+        "Host: localhost\r\n" +
+        "content-type:text/plain\r\n" +
+        "X-Custom:   spaced out \t\r\n" +
+        "Content-Length: 5\r\n" +
+        "\r\n" +
+        "hello";
+
+    public static HttpRequest parse(InputStream input) throws Exception {
+        HttpRequest request = new HttpRequest(new HttpRouter(), input,
+                new ByteArrayOutputStream());
+        request.parseRequest();
+        return request;
+    }
+
+    public static HttpRequest parse(String request) throws Exception {
+        return parse(new MockInputStream(request));
+    }
+
+    public static String readBody(HttpRequest request) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int read;
+        while ((read = request.getBody().read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return body.toString("ISO-8859-1");
+    }
+
+    public static void assertRejected(int code, String request) {
+        try {
+            parse(request);
+            fail("Expected the request to be rejected");
+        } catch (HttpException e) {
+            assertEquals(code, e.getCode());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Expected an HttpException, got " + e);
+        }
+    }
+
+
+    @Test
+    public void testSplitAtEveryByte() throws Exception {
+        for (int split = 1; split < REQUEST.length(); split++) {
+            HttpRequest request = parse(new MockInputStream(REQUEST, split));
+            String at = " (split at " + split + ")";
+
+            assertEquals("method" + at, "POST", request.getRequestType());
+            assertEquals("path" + at, "/hello/world?name=Don", request.getFullPath());
+            assertEquals("protocol" + at, "HTTP/1.1", request.getRequestProtocol());
+            assertEquals("host" + at, "localhost", request.getHeader(HttpHeader.HOST));
+            assertEquals("type" + at, "text/plain", request.getHeader("Content-Type"));
+            assertEquals("custom" + at, "spaced out", request.getHeader("x-custom"));
+            assertEquals("param" + at, "Don", request.getParam("name"));
+            assertEquals("body" + at, "hello", readBody(request));
+        }
+    }
+
+    @Test
+    public void testOneByteAtATime() throws Exception {
+        int[] splits = new int[REQUEST.length()];
+        for (int i = 0; i < splits.length; i++) {
+            splits[i] = i + 1;
+        }
+
+        HttpRequest request = parse(new MockInputStream(REQUEST, splits));
+        assertEquals("localhost", request.getHeader(HttpHeader.HOST));
+        assertEquals("hello", readBody(request));
+    }
+
+    @Test
+    public void testBareLineFeeds() throws Exception {
+        HttpRequest request = parse("GET /plain HTTP/1.0\nHost: x\nAccept: */*\n\n");
+
+        assertEquals("/plain", request.getFullPath());
+        assertEquals("HTTP/1.0", request.getRequestProtocol());
+        assertEquals("x", request.getHeader(HttpHeader.HOST));
+        assertEquals("*/*", request.getHeader(HttpHeader.ACCEPT));
+    }
+
+    @Test
+    public void testLeadingBlankLines() throws Exception {
+        HttpRequest request = parse("\r\n\r\nGET / HTTP/1.1\r\nHost: x\r\n\r\n");
+        assertEquals("GET", request.getRequestType());
+        assertEquals("x", request.getHeader(HttpHeader.HOST));
+    }
+
+    @Test
+    public void testFoldedHeaders() throws Exception {
+        HttpRequest request = parse("GET / HTTP/1.1\r\n" +
+                "X-Folded: first\r\n" +
+                "   second\r\n" +
+                "\tthird\r\n" +
+                "Host: x\r\n" +
+                "\r\n");
+
+        assertEquals("first second third", request.getHeader("X-Folded"));
+        assertEquals("x", request.getHeader(HttpHeader.HOST));
+    }
+
+    @Test
+    public void testHeaderLookup() throws Exception {
+        HttpRequest request = parse("GET / HTTP/1.1\r\n" +
+                "ACCEPT-encoding: gzip\r\n" +
+                "X-Twice: one\r\n" +
+                "X-Twice: two\r\n" +
+                "\r\n");
+
+        assertEquals(HttpHeader.ACCEPT_ENCODING, HttpHeader.forName("accept-ENCODING"));
+        assertNull(HttpHeader.forName("X-Twice"));
+        assertEquals("gzip", request.getHeader(HttpHeader.ACCEPT_ENCODING));
+        assertEquals("gzip", request.getHeader("Accept-Encoding"));
+        assertEquals("two", request.getHeader("x-twice"));
+        assertNull(request.getHeader(HttpHeader.HOST));
+        assertEquals("gzip", request.getHeaders().get("Accept-Encoding"));
+    }
+
+    @Test
+    public void testHeaderCountLimit() throws Exception {
+        StringBuilder headers = new StringBuilder();
+        for (int i = 0; i < 128; i++) {
+            headers.append("X-Header-").append(i).append(": ").append(i).append("\r\n");
+        }
+
+        HttpRequest request = parse("GET / HTTP/1.1\r\n" + headers + "\r\n");
+        assertEquals("127", request.getHeader("X-Header-127"));
+
+        assertRejected(431, "GET / HTTP/1.1\r\n" + headers + "X-One-Too-Many: 1\r\n\r\n");
+    }
+
+    @Test
+    public void testHeadSizeLimit() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 60 * 1024; i++) {
+            value.append('a');
+        }
+
+        // Bigger than the stream's first buffer, but still allowed.
+        HttpRequest request = parse("GET / HTTP/1.1\r\nX-Big: " + value + "\r\n\r\n");
+        assertEquals(value.length(), request.getHeader("X-Big").length());
+
+        value.append(value);
+        assertRejected(431, "GET / HTTP/1.1\r\nX-Big: " + value + "\r\n\r\n");
+    }
+
+    @Test
+    public void testEndlessBlankLines() {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 64 * 1024; i++) {
+            lines.append("\r\n");
+        }
+
+        assertRejected(431, lines + "GET / HTTP/1.1\r\n\r\n");
+    }
+
+    @Test
+    public void testRepeatedContentLength() throws Exception {
+        HttpRequest request = parse("POST / HTTP/1.1\r\n" +
+                "Content-Length: 5\r\n" +
+                "Content-Length:5\r\n" +
+                "\r\n" +
+                "hello");
+        assertEquals("hello", readBody(request));
+
+        assertRejected(400, "POST / HTTP/1.1\r\n" +
+                "Content-Length: 5\r\n" +
+                "Host: x\r\n" +
+                "content-length: 12\r\n" +
+                "\r\n" +
+                "hello\r\n\r\nGET / HTTP/1.1\r\n\r\n");
+    }
+
+    @Test
+    public void testMalformed() {
+        assertRejected(400, "GET /\r\n\r\n");
+        assertRejected(400, "GET  / HTTP/1.1\r\n\r\n");
+        assertRejected(400, "G(T / HTTP/1.1\r\n\r\n");
+        assertRejected(400, "GET / HTTP/1.1\r\nNo colon here\r\n\r\n");
+        assertRejected(400, "GET / HTTP/1.1\r\nHost: x\rBroken: y\r\n\r\n");
+    }
+}
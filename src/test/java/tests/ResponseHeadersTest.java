@@ -0,0 +1,132 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import httpserver.HttpRequest;
+import httpserver.HttpResponse;
+import httpserver.HttpServer;
+import httpserver.Route;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import tests.mocks.MockHttpServer;
+import tests.mocks.MockInputStream;
+
+public class ResponseHeadersTest {
+    private static final String REQUEST =
+        "GET /test HTTP/1.1\r\n" +
+        "Host: localhost\r\n" +
+        "Accept-Encoding: gzip\r\n" +
+        "\r\n";
+
+    private static final byte[] BODY = new byte[4000];
+    static {
+        Arrays.fill(BODY, (byte) 'a');
+    }
+
+    /**
+     * Send a request to a server with just one route, and get back exactly
+     * what it wrote.
+     */
+    private static String exchange(Route route) throws Exception {
+        HttpServer server = MockHttpServer.mockServer();
+        server.get(route);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        HttpRequest request = new HttpRequest(server.getRouter(),
+                new MockInputStream(REQUEST), output);
+        request.createResponse().respond();
+
+        return output.toString("ISO-8859-1");
+    }
+
+    /**
+     * Get the values of every header with a name, ignoring its case.
+     */
+    private static List<String> headers(String response, String name) {
+        List<String> values = new ArrayList<>();
+        String head = response.substring(0, response.indexOf("\r\n\r\n"));
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon != -1 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                values.add(line.substring(colon + 1).trim());
+            }
+        }
+        return values;
+    }
+
+    private static String body(String response) {
+        return response.substring(response.indexOf("\r\n\r\n") + 4);
+    }
+
+
+    @Test
+    public void testHandlersContentEncoding() throws Exception {
+        String response = exchange(new Route("/test") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setCompression(true);
+                response.setHeader("content-encoding", "br");
+                response.setBody(BODY);
+            }
+        });
+
+        assertEquals(Arrays.asList("br"), headers(response, "Content-Encoding"));
+        assertEquals(new String(BODY, "ISO-8859-1"), body(response));
+    }
+
+    @Test
+    public void testHandlersContentEncodingStreamed() throws Exception {
+        String response = exchange(new Route("/test") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setCompression(true);
+                response.setHeader("CONTENT-ENCODING", "br");
+                try (OutputStream out = response.getOutputStream()) {
+                    out.write(BODY);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        assertEquals(Arrays.asList("br"), headers(response, "Content-Encoding"));
+        assertTrue(body(response).contains(new String(BODY, "ISO-8859-1")));
+    }
+
+    @Test
+    public void testHandlersVary() throws Exception {
+        String response = exchange(new Route("/test") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setCompression(true);
+                response.setHeader("vary", "Origin");
+                response.setBody(BODY);
+            }
+        });
+
+        assertEquals(Arrays.asList("Origin, Accept-Encoding"), headers(response, "Vary"));
+        assertEquals(Arrays.asList("gzip"), headers(response, "Content-Encoding"));
+    }
+
+    @Test
+    public void testHandlersDate() throws Exception {
+        String response = exchange(new Route("/test") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setHeader("date", "Thu, 01 Jan 2015 00:00:00 GMT");
+                response.setBody("hello");
+            }
+        });
+        assertEquals(Arrays.asList("Thu, 01 Jan 2015 00:00:00 GMT"), headers(response, "Date"));
+
+        response = exchange(new Route("/test") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setBody("hello");
+            }
+        });
+        assertEquals(1, headers(response, "Date").size());
+    }
+}
@@ -0,0 +1,177 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import httpserver.HttpHandler;
+import httpserver.HttpRequest;
+import httpserver.HttpResponse;
+import httpserver.HttpRouter;
+import httpserver.HttpServer;
+import httpserver.Route;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tests.mocks.MockHttpServer;
+import tests.mocks.MockInputStream;
+
+public class RouteTest {
+    private static HttpServer server;
+
+    /**
+     * A route that answers with its own path, and whatever params and
+     * varargs it matched, so a test can tell which route was picked.
+     */
+    private static class NamedRoute extends Route {
+        private final String path;
+        private final String[] params;
+
+        public NamedRoute(String path, String... params) {
+            super(path);
+            this.path = path;
+            this.params = params;
+        }
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response) {
+            StringBuilder b = new StringBuilder(path);
+            for (String param : params) {
+                b.append(' ').append(param).append('=').append(request.getParam(param));
+            }
+            if (path.endsWith("{*}")) {
+                b.append(' ').append(request.getVarargs());
+            }
+            response.setBody(b.toString());
+        }
+    }
+
+    @BeforeClass
+    public static void setupServer() {
+        server = MockHttpServer.mockServer();
+
+        server.get(new NamedRoute("/hello/{*}"));
+        server.get(new NamedRoute("/hello/{name}", "name"));
+        server.get(new NamedRoute("/hello/world"));
+
+        server.get(new NamedRoute("/a/b/c/x"));
+        server.get(new NamedRoute("/a/{p}/c/d", "p"));
+        server.get(new NamedRoute("/a/b/{q}/y", "q"));
+        server.get(new NamedRoute("/a/{*}"));
+
+        server.get(new NamedRoute("/files/{*}"));
+    }
+
+    public static HttpResponse respond(HttpRouter router, String method, String path)
+            throws Exception {
+        String request = method + " " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        HttpRequest r = new HttpRequest(router, new MockInputStream(request),
+                new ByteArrayOutputStream());
+        return r.createResponse();
+    }
+
+    public static String body(HttpResponse response) throws Exception {
+        return new String(response.getBody(), "UTF-8");
+    }
+
+    private static void assertRoute(String expected, String path) throws Exception {
+        HttpResponse response = respond(server.getRouter(), "GET", path);
+        assertEquals(path, 200, response.getCode());
+        assertEquals(path, expected, body(response));
+    }
+
+
+    @Test
+    public void testPriority() throws Exception {
+        assertRoute("/hello/world", "/hello/world");
+        assertRoute("/hello/{name} name=bob", "/hello/bob");
+        assertRoute("/hello/{*} [bob, smith]", "/hello/bob/smith");
+    }
+
+    @Test
+    public void testBacktracking() throws Exception {
+        // The literal b branch only has /a/b/c/x and /a/b/{q}/y, so it's a
+        // dead end, and the search has to back up and take {p}.
+        assertRoute("/a/{p}/c/d p=b", "/a/b/c/d");
+        assertRoute("/a/b/c/x", "/a/b/c/x");
+        assertRoute("/a/b/{q}/y q=c", "/a/b/c/y");
+
+        // Nothing fits the whole path under a/b, or under {p}.
+        assertRoute("/a/{*} [b, c, z]", "/a/b/c/z");
+        assertRoute("/a/{*} [b]", "/a/b");
+    }
+
+    @Test
+    public void testWildcardWithManySegments() throws Exception {
+        assertRoute("/files/{*} [a]", "/files/a");
+        assertRoute("/files/{*} [a, b, c, d, e, f, g, h]", "/files/a/b/c/d/e/f/g/h");
+        assertRoute("/files/{*} [docs, readme.txt]", "/files/docs/readme.txt?raw=1");
+    }
+
+    @Test
+    public void testWildcardWithNoSegments() throws Exception {
+        assertEquals(501, respond(server.getRouter(), "GET", "/files").getCode());
+        assertEquals(501, respond(server.getRouter(), "GET", "/hello").getCode());
+        assertEquals(501, respond(server.getRouter(), "GET", "/a").getCode());
+    }
+
+    @Test
+    public void testHandlerAlone() throws Exception {
+        HttpHandler handler = new HttpHandler() { };
+        handler.get(new NamedRoute("/{x}/{y}", "x", "y"));
+        handler.get(new NamedRoute("/{x}/here", "x"));
+
+        HttpRouter router = new HttpRouter();
+        router.addHandler("", handler);
+
+        assertEquals("/{x}/here x=1", body(respond(router, "GET", "/1/here")));
+        assertEquals("/{x}/{y} x=1 y=there", body(respond(router, "GET", "/1/there")));
+        assertEquals(501, respond(router, "GET", "/1/2/3").getCode());
+    }
+
+    @Test
+    public void testMethodNotAllowed() throws Exception {
+        HttpHandler handler = new HttpHandler() { };
+        handler.get(new NamedRoute("/items/{id}", "id"));
+        handler.delete(new NamedRoute("/items/{id}", "id"));
+        handler.post(new NamedRoute("/items"));
+        handler.addRoute("PURGE", new NamedRoute("/items/{id}", "id"));
+        handler.addRoute("LINK", new NamedRoute("/links"));
+
+        HttpRouter router = new HttpRouter();
+        router.addHandler("", handler);
+
+        assertEquals("GET, HEAD, POST, DELETE, PURGE, LINK", handler.getAllow());
+
+        // Allow only lists the methods that have a route for the path.
+        HttpResponse response = respond(router, "PUT", "/items/1");
+        assertEquals(405, response.getCode());
+        assertEquals("GET, HEAD, DELETE, PURGE", response.getHeader("Allow"));
+
+        response = respond(router, "POST", "/items/1");
+        assertEquals(405, response.getCode());
+        assertEquals("GET, HEAD, DELETE, PURGE", response.getHeader("Allow"));
+
+        response = respond(router, "GET", "/items");
+        assertEquals(405, response.getCode());
+        assertEquals("POST", response.getHeader("Allow"));
+
+        response = respond(router, "PURGE", "/links");
+        assertEquals(405, response.getCode());
+        assertEquals("LINK", response.getHeader("Allow"));
+
+        // Methods are case-sensitive, standard ones or not.
+        response = respond(router, "get", "/items/1");
+        assertEquals(405, response.getCode());
+        assertEquals("GET, HEAD, DELETE, PURGE", response.getHeader("Allow"));
+
+        response = respond(router, "purge", "/items/1");
+        assertEquals(405, response.getCode());
+        assertEquals("GET, HEAD, DELETE, PURGE", response.getHeader("Allow"));
+
+        // Nothing at all has the path.
+        assertEquals(501, respond(router, "PUT", "/nothing").getCode());
+        assertEquals(501, respond(router, "GET", "/nothing").getCode());
+        assertEquals("/items/{id} id=1", body(respond(router, "PURGE", "/items/1")));
+    }
+}
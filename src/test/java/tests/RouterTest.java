@@ -0,0 +1,109 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import httpserver.HttpHandler;
+import httpserver.HttpRequest;
+import httpserver.HttpResponse;
+import httpserver.HttpRouter;
+import httpserver.Route;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RouterTest {
+    private static HttpRouter router;
+
+    /**
+     * A handler with one route that matches anything, and answers with the
+     * handler's name and what the request looks like from inside it.
+     */
+    private static HttpHandler catchAll(final String name) {
+        HttpHandler handler = new HttpHandler() { };
+        handler.get(new Route("/{*}") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setBody(name + " depth=" + request.getPathDepth()
+                        + " path=" + request.getPath() + " " + request.getVarargs());
+            }
+        });
+        return handler;
+    }
+
+    @BeforeClass
+    public static void setupRouter() {
+        router = new HttpRouter();
+
+        HttpHandler orders = new HttpHandler() { };
+        orders.get(new Route("/") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setBody("orders path=" + request.getPath()
+                        + " x=" + request.getParam("x"));
+            }
+        });
+        orders.get(new Route("/{id}") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setBody("order id=" + request.getPathParam("id")
+                        + " path=" + request.getPath() + " x=" + request.getParam("x"));
+            }
+        });
+        orders.get(new Route("/{id}/items") {
+            @Override public void handle(HttpRequest request, HttpResponse response) {
+                response.setBody("items id=" + request.getPathParam("id")
+                        + " path=" + request.getPath());
+            }
+        });
+
+        router.addHandler("api", catchAll("api"));
+        router.addHandler("/api/v2/orders/", orders);
+        router.setDefaultHandler(catchAll("default"));
+    }
+
+    private static void assertRouted(String expected, String path) throws Exception {
+        HttpResponse response = RouteTest.respond(router, "GET", path);
+        assertEquals(path, 200, response.getCode());
+        assertEquals(path, expected, RouteTest.body(response));
+    }
+
+
+    @Test
+    public void testNestedPrefix() throws Exception {
+        assertRouted("orders path= x=null", "/api/v2/orders");
+        assertRouted("orders path=/ x=null", "/api/v2/orders/");
+        assertRouted("order id=42 path=/42 x=null", "/api/v2/orders/42");
+        assertRouted("items id=42 path=/42/items", "/api/v2/orders/42/items");
+    }
+
+    @Test
+    public void testLongestPrefixWins() throws Exception {
+        assertRouted("api depth=1 path=/v2/other [v2, other]", "/api/v2/other");
+        assertRouted("api depth=1 path=/v2 [v2]", "/api/v2");
+        assertRouted("api depth=1 path=/v2/order [v2, order]", "/api/v2/order");
+        assertRouted("api depth=1 path=/orders/42 [orders, 42]", "/api/orders/42");
+    }
+
+    @Test
+    public void testDefaultHandler() throws Exception {
+        assertRouted("default depth=0 path=/other/thing [other, thing]", "/other/thing");
+
+        // Prefixes match whole segments, not just the start of one.
+        assertRouted("default depth=0 path=/apiary [apiary]", "/apiary");
+        assertRouted("default depth=0 path=/v2/orders [v2, orders]", "/v2/orders");
+
+        HttpRouter bare = new HttpRouter();
+        bare.addHandler("api", catchAll("api"));
+        assertEquals(501, RouteTest.respond(bare, "GET", "/other").getCode());
+    }
+
+    @Test
+    public void testQueryStrings() throws Exception {
+        assertRouted("orders path=?x=1 x=1", "/api/v2/orders?x=1");
+        assertRouted("orders path=/?x=1 x=1", "/api/v2/orders/?x=1");
+        assertRouted("order id=42 path=/42?x=1 x=1", "/api/v2/orders/42?x=1");
+        assertRouted("api depth=1 path=/v2?x=1 [v2]", "/api/v2?x=1");
+        assertRouted("default depth=0 path=/apiary?x=1 [apiary]", "/apiary?x=1");
+    }
+
+    @Test
+    public void testDoubledSlashes() throws Exception {
+        assertRouted("order id=42 path=/42 x=null", "//api//v2/orders/42");
+    }
+}
@@ -0,0 +1,58 @@
+package tests.mocks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A MockInputStream hands out some bytes in pieces, one piece per read, the
+ * way they might come in off of a network. It's used for making sure a
+ * request is parsed the same no matter how it's split up.
+ */
+public class MockInputStream extends InputStream {
+    private final byte[] data;
+    private final int[] splits;
+    private int position = 0;
+    private int split = 0;
+
+
+    /**
+     * Create a MockInputStream.
+     *
+     * @param data    The bytes to hand out.
+     * @param splits  Where each piece ends, in order. Whatever's after the
+     *                last one is the final piece.
+     */
+    public MockInputStream(byte[] data, int... splits) {
+        this.data = data;
+        this.splits = splits;
+    }
+
+    public MockInputStream(String data, int... splits) {
+        this(data.getBytes(StandardCharsets.ISO_8859_1), splits);
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position == data.length) {
+            return -1;
+        }
+
+        while (split < splits.length && splits[split] <= position) {
+            split++;
+        }
+        int end = split < splits.length ? splits[split] : data.length;
+
+        int n = Math.min(len, end - position);
+        System.arraycopy(data, position, b, off, n);
+        position += n;
+        return n;
+    }
+}